@@ -0,0 +1,119 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding up file sizes and dates while responses arrive on several parser threads at once.
+ *
+ * All threads add to the same folder, which is the worst case: a folder with many files
+ * whose file info responses get parsed concurrently.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AggregationBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class Folder
+    {
+        public ArtifactoryScanner.FileTotals totals;
+        public SizeAndLatestDate node;
+
+        @Setup(Level.Iteration)
+        public void setup()
+        {
+            totals = new ArtifactoryScanner.FileTotals();
+            node = new SizeAndLatestDate( BenchmarkData.REPO, "" );
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Files
+    {
+        public final long[] sizes = new long[ 1024 ];
+        public final long[] dates = new long[ 1024 ];
+        public int next;
+
+        @Setup
+        public void setup()
+        {
+            final Random rnd = new Random( 0xdeadbeef );
+            final ZonedDateTime start = ZonedDateTime.of( 2015, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC );
+            for ( int i = 0 ; i < sizes.length ; i++ )
+            {
+                sizes[i] = rnd.nextInt( 50_000_000 );
+                dates[i] = start.plusSeconds( rnd.nextInt( 8 * 365 * 24 * 3600 ) ).toInstant().toEpochMilli();
+            }
+        }
+
+        public int next()
+        {
+            next = ( next + 1 ) & ( sizes.length - 1 );
+            return next;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void fileTotals1(Folder folder, Files files)
+    {
+        final int i = files.next();
+        folder.totals.add( files.sizes[i], files.dates[i] );
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fileTotals4(Folder folder, Files files)
+    {
+        final int i = files.next();
+        folder.totals.add( files.sizes[i], files.dates[i] );
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void fileTotals16(Folder folder, Files files)
+    {
+        final int i = files.next();
+        folder.totals.add( files.sizes[i], files.dates[i] );
+    }
+
+    /**
+     * Baseline for {@link #synchronizedMerge4(Folder, Files)}: the same work as {@link #fileTotals4(Folder, Files)}
+     * serialized on the folder's monitor, like the scanner used to do.
+     */
+    @Benchmark
+    @Threads(1)
+    public void synchronizedMerge1(Folder folder, Files files)
+    {
+        final int i = files.next();
+        synchronized (folder.node) {
+            folder.node.addFile( files.sizes[i], files.dates[i] );
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void synchronizedMerge4(Folder folder, Files files)
+    {
+        final int i = files.next();
+        synchronized (folder.node) {
+            folder.node.addFile( files.sizes[i], files.dates[i] );
+        }
+    }
+}
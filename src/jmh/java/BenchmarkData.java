@@ -0,0 +1,151 @@
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Synthetic inputs shaped like what an Artifactory server returns.
+ *
+ * Everything is generated from fixed seeds, so runs of the same benchmark always see the same data.
+ */
+final class BenchmarkData
+{
+    public static final ArtifactoryClient.Repository REPO = new ArtifactoryClient.Repository( "libs-release-local", "LOCAL" );
+
+    /**
+     * Timestamps as sent by the storage API.
+     */
+    private static final DateTimeFormatter SERVER_DATE_FORMAT = DateTimeFormatter.ofPattern( "yyyy-MM-dd'T'HH:mm:ss.SSSxxx" );
+
+    private static final ZonedDateTime START = ZonedDateTime.of( 2015, 1, 1, 0, 0, 0, 0, ZoneOffset.ofHours( 1 ) );
+
+    private BenchmarkData()
+    {
+    }
+
+    public static String date(Random rnd)
+    {
+        return SERVER_DATE_FORMAT.format( START.plusSeconds( rnd.nextInt( 8 * 365 * 24 * 3600 ) ) );
+    }
+
+    /**
+     * @return folder listing with the given number of children, one in ten being a folder
+     */
+    public static byte[] folderListing(int children)
+    {
+        final Random rnd = new Random( 0xdeadbeef );
+        final StringBuilder json = new StringBuilder( "{\n  \"repo\" : \"" + REPO.repoId + "\",\n  \"path\" : \"/org/example\",\n" );
+        json.append( "  \"created\" : \"" ).append( date( rnd ) ).append( "\",\n" );
+        json.append( "  \"lastModified\" : \"" ).append( date( rnd ) ).append( "\",\n" );
+        json.append( "  \"children\" : [" );
+        for ( int i = 0 ; i < children ; i++ )
+        {
+            final boolean folder = ( i % 10 ) == 0;
+            json.append( i == 0 ? "" : "," ).append( "{\n    \"uri\" : \"/" ).append( folder ? "module-" : "artifact-" ).append( i )
+                .append( folder ? "" : ".jar" ).append( "\",\n    \"folder\" : " ).append( folder ).append( "\n  }" );
+        }
+        json.append( "],\n  \"uri\" : \"http://localhost:8081/artifactory/api/storage/" ).append( REPO.repoId ).append( "/org/example\"\n}" );
+        return json.toString().getBytes( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * @return file info response including checksums
+     */
+    public static byte[] fileInfo()
+    {
+        final Random rnd = new Random( 0xdeadbeef );
+        return ( "{\n  \"repo\" : \"" + REPO.repoId + "\",\n  \"path\" : \"/org/example/artifact-1.jar\",\n" +
+            "  \"created\" : \"" + date( rnd ) + "\",\n  \"createdBy\" : \"deployer\",\n" +
+            "  \"lastModified\" : \"" + date( rnd ) + "\",\n  \"modifiedBy\" : \"deployer\",\n" +
+            "  \"lastUpdated\" : \"" + date( rnd ) + "\",\n" +
+            "  \"downloadUri\" : \"http://localhost:8081/artifactory/" + REPO.repoId + "/org/example/artifact-1.jar\",\n" +
+            "  \"mimeType\" : \"application/java-archive\",\n  \"size\" : \"1048576\",\n" +
+            "  \"checksums\" : {\n    \"sha1\" : \"962ab1e35a3c1cd4fa4bf2d57e33e5e1c2a34a3e\",\n" +
+            "    \"md5\" : \"7b0e3b0a2ac3f9a33c4ab5d5e7f2a9c1\"\n  },\n" +
+            "  \"originalChecksums\" : {\n    \"sha1\" : \"962ab1e35a3c1cd4fa4bf2d57e33e5e1c2a34a3e\"\n  },\n" +
+            "  \"uri\" : \"http://localhost:8081/artifactory/api/storage/" + REPO.repoId + "/org/example/artifact-1.jar\"\n}" )
+            .getBytes( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * @return deep file list response with the given number of items
+     */
+    public static byte[] deepListing(int items)
+    {
+        final Random rnd = new Random( 0xdeadbeef );
+        final StringBuilder json = new StringBuilder( "{\n  \"uri\" : \"http://localhost:8081/artifactory/api/storage/" + REPO.repoId + "\",\n" );
+        json.append( "  \"created\" : \"" ).append( date( rnd ) ).append( "\",\n  \"files\" : [" );
+        for ( int i = 0 ; i < items ; i++ )
+        {
+            final boolean folder = ( i % 10 ) == 0;
+            json.append( i == 0 ? "" : "," ).append( "{\n    \"uri\" : \"/org/group-" ).append( i / 1000 ).append( "/module-" ).append( i / 10 )
+                .append( folder ? "" : "/artifact-" + i + ".jar" ).append( "\",\n    \"size\" : " ).append( folder ? -1 : rnd.nextInt( 10_000_000 ) )
+                .append( ",\n    \"lastModified\" : \"" ).append( date( rnd ) ).append( "\",\n    \"folder\" : " ).append( folder );
+            if ( ! folder ) {
+                json.append( ",\n    \"sha1\" : \"962ab1e35a3c1cd4fa4bf2d57e33e5e1c2a34a3e\"" );
+            }
+            json.append( "\n  }" );
+        }
+        json.append( "]\n}" );
+        return json.toString().getBytes( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * @return AQL search response with the given number of results
+     */
+    public static byte[] aqlResults(int items)
+    {
+        final Random rnd = new Random( 0xdeadbeef );
+        final StringBuilder json = new StringBuilder( "{\n\"results\" : [" );
+        for ( int i = 0 ; i < items ; i++ )
+        {
+            final boolean folder = ( i % 10 ) == 0;
+            final String date = date( rnd );
+            json.append( i == 0 ? "" : "," ).append( "{\n  \"repo\" : \"" ).append( REPO.repoId ).append( "\",\n  \"path\" : \"org/group-" ).append( i / 1000 )
+                .append( "\",\n  \"name\" : \"" ).append( folder ? "module-" + i / 10 : "artifact-" + i + ".jar" )
+                .append( "\",\n  \"type\" : \"" ).append( folder ? "folder" : "file" )
+                .append( "\",\n  \"size\" : " ).append( folder ? 0 : rnd.nextInt( 10_000_000 ) )
+                .append( ",\n  \"modified\" : \"" ).append( date ).append( "\",\n  \"updated\" : \"" ).append( date ).append( "\"\n}" );
+        }
+        json.append( "],\n\"range\" : {\n  \"start_pos\" : 0,\n  \"end_pos\" : " ).append( items ).append( ",\n  \"total\" : " ).append( items ).append( "\n}\n}" );
+        return json.toString().getBytes( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Creates a tree of folders as returned by a scan, with totals summed up and children sorted.
+     *
+     * Folders have up to 2 * <code>fanOut</code> children in random order, most files have a size and date
+     * and a few have no date at all.
+     *
+     * @param nodes number of nodes
+     * @return root
+     */
+    public static SizeAndLatestDate tree(int nodes, int fanOut)
+    {
+        final Random rnd = new Random( 0xdeadbeef );
+        final SizeAndLatestDate root = new SizeAndLatestDate( REPO, "" );
+        final SizeAndLatestDate[] created = new SizeAndLatestDate[ nodes ];
+        created[0] = root;
+        int parent = 0;
+        int remaining = 1 + rnd.nextInt( 2 * fanOut );
+        for ( int i = 1 ; i < nodes ; i++ )
+        {
+            while ( remaining == 0 )
+            {
+                parent++;
+                remaining = 1 + rnd.nextInt( 2 * fanOut );
+            }
+            final SizeAndLatestDate node = new SizeAndLatestDate( created[parent], "/f" + rnd.nextInt( 1_000_000 ) );
+            final int files = rnd.nextInt( 4 );
+            for ( int j = 0 ; j < files ; j++ ) {
+                node.addFile( rnd.nextInt( 50_000_000 ), rnd.nextInt( 20 ) == 0 ? Timestamps.NO_DATE : START.plusDays( rnd.nextInt( 8 * 365 ) ).toInstant().toEpochMilli() );
+            }
+            created[i] = node;
+            remaining--;
+        }
+        root.sumUpChildren();
+        root.sortChildren();
+        return root;
+    }
+}
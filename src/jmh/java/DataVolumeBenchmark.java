@@ -0,0 +1,54 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of sizes, done for every label and tooltip the treemap renders.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DataVolumeBenchmark
+{
+    /**
+     * Sizes spread evenly over all units, from bytes to terabytes.
+     */
+    private final long[] sizes = new long[ 1024 ];
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        final Random rnd = new Random( 0xdeadbeef );
+        for ( int i = 0 ; i < sizes.length ; i++ ) {
+            sizes[i] = (long) Math.pow( 2, rnd.nextDouble() * 44 );
+        }
+    }
+
+    @Benchmark
+    public String toPrettyString()
+    {
+        next = ( next + 1 ) & ( sizes.length - 1 );
+        return DataVolume.bytes( sizes[ next ] ).toPrettyString();
+    }
+
+    @Benchmark
+    public String toPrettyStringWithoutInstance()
+    {
+        next = ( next + 1 ) & ( sizes.length - 1 );
+        return DataVolume.toPrettyString( sizes[ next ] );
+    }
+}
@@ -0,0 +1,138 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Parsing of storage API and AQL responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParserBenchmark
+{
+    /**
+     * Items per response.
+     */
+    @Param({"100", "10000", "100000"})
+    public int items;
+
+    private byte[] folderListing;
+    private byte[] deepListing;
+    private byte[] aqlResults;
+    private byte[] fileInfo;
+    private byte[] repositories;
+
+    @Setup
+    public void setup()
+    {
+        folderListing = BenchmarkData.folderListing( items );
+        deepListing = BenchmarkData.deepListing( items );
+        aqlResults = BenchmarkData.aqlResults( items );
+        fileInfo = BenchmarkData.fileInfo();
+        final StringBuilder json = new StringBuilder( "[" );
+        for ( int i = 0 ; i < items ; i++ )
+        {
+            json.append( i == 0 ? "" : "," ).append( "{\"key\":\"repo-" ).append( i ).append( "\",\"type\":\"LOCAL\",\"packageType\":\"maven\"," )
+                .append( "\"url\":\"http://localhost:8081/artifactory/repo-" ).append( i ).append( "\"}" );
+        }
+        repositories = json.append( "]" ).toString().getBytes( StandardCharsets.UTF_8 );
+    }
+
+    @Benchmark
+    public int folderListing(Blackhole bh)
+    {
+        return ArtifactoryClient.parseChildren( new ByteArrayInputStream( folderListing ), bh::consume, bh::consume, bh::consume );
+    }
+
+    @Benchmark
+    public long deepListing(Blackhole bh)
+    {
+        return ArtifactoryClient.parseFileList( new ByteArrayInputStream( deepListing ), bh::consume );
+    }
+
+    @Benchmark
+    public int aqlResults(Blackhole bh)
+    {
+        return ArtifactoryClient.parseAQLResults( new ByteArrayInputStream( aqlResults ), bh::consume );
+    }
+
+    @Benchmark
+    public Object[] repositories()
+    {
+        return ArtifactoryClient.parseJSONArray( new ByteArrayInputStream( repositories ) );
+    }
+
+    /**
+     * Independent of {@link #items}.
+     */
+    @Benchmark
+    public ArtifactoryClient.Item fileInfo()
+    {
+        return ArtifactoryClient.parseFileInfo( new ByteArrayInputStream( fileInfo ), new ArtifactoryClient.Item( "/artifact-1.jar", false ) );
+    }
+
+    /**
+     * Timestamp parsing alone.
+     */
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(java.util.concurrent.TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(2)
+    public static class DateBenchmark
+    {
+        private final String[] dates = new String[ 1024 ];
+        private final char[][] chars = new char[ dates.length ][];
+        private int next;
+
+        @Setup
+        public void setup()
+        {
+            final Random rnd = new Random( 0xdeadbeef );
+            for ( int i = 0 ; i < dates.length ; i++ )
+            {
+                dates[i] = BenchmarkData.date( rnd );
+                chars[i] = dates[i].toCharArray();
+            }
+        }
+
+        /**
+         * Parsing straight from the JSON parser's buffer, like the client does.
+         */
+        @Benchmark
+        public long date()
+        {
+            next = ( next + 1 ) & ( dates.length - 1 );
+            return Timestamps.parse( chars[ next ], 0, chars[ next ].length );
+        }
+
+        /**
+         * Baseline for {@link #date()}.
+         */
+        @Benchmark
+        public ZonedDateTime zonedDateTime()
+        {
+            next = ( next + 1 ) & ( dates.length - 1 );
+            return ZonedDateTime.parse( dates[ next ], DateTimeFormatter.ISO_OFFSET_DATE_TIME );
+        }
+    }
+}
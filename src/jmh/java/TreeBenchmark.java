@@ -0,0 +1,106 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done on a scanned tree before it is shown: copying, summing up, sorting and building the treemap model.
+ *
+ * The largest trees need a big heap, which is why forks get 8 GB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx8g", "-Djava.awt.headless=true"})
+public class TreeBenchmark
+{
+    @Param({"100000", "1000000", "10000000"})
+    public int nodes;
+
+    /**
+     * Average number of children per folder.
+     */
+    @Param({"10"})
+    public int fanOut;
+
+    private SizeAndLatestDate tree;
+    private NodeStore store;
+    private Optional<ZonedDateTime> olderThan;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        tree = BenchmarkData.tree( nodes, fanOut );
+        store = NodeStore.of( BenchmarkData.REPO, tree );
+        olderThan = Optional.of( ZonedDateTime.parse( "2019-01-01T00:00:00Z" ) );
+    }
+
+    /**
+     * Shuffles children again after {@link #sortChildren()} so that each invocation sorts the same input.
+     */
+    @Setup(Level.Invocation)
+    public void shuffle()
+    {
+        shuffle( tree, new Random( 0xdeadbeef ) );
+    }
+
+    private static void shuffle(SizeAndLatestDate node, Random rnd)
+    {
+        Collections.shuffle( node.children, rnd );
+        node.children.forEach( child -> shuffle( child, rnd ) );
+    }
+
+    @Benchmark
+    public SizeAndLatestDate copy()
+    {
+        return tree.copy( null, node -> true );
+    }
+
+    @Benchmark
+    public SizeAndLatestDate fixSizes()
+    {
+        tree.fixSizes();
+        return tree;
+    }
+
+    @Benchmark
+    public SizeAndLatestDate sortChildren()
+    {
+        tree.sortChildren();
+        return tree;
+    }
+
+    @Benchmark
+    public NodeTableModel createTreeModel()
+    {
+        return Main.createTreeModel( store, Optional.empty() );
+    }
+
+    @Benchmark
+    public NodeTableModel createFilteredTreeModel()
+    {
+        return Main.createTreeModel( store, olderThan );
+    }
+
+    @Benchmark
+    public NodeStore toNodeStore()
+    {
+        return NodeStore.of( BenchmarkData.REPO, tree );
+    }
+}
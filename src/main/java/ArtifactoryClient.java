@@ -1,46 +1,91 @@
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.httpclient.Credentials;
-import org.apache.commons.httpclient.HostConfiguration;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpMethod;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
-import org.apache.commons.httpclient.URI;
-import org.apache.commons.httpclient.URIException;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
-import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 
 public class ArtifactoryClient
 {
-    private static final String API_URL = "http://localhost:8081/artifactory/api";
-
-    private static final DateTimeFormatter JSON_DATE_FORMAT = DateTimeFormatter.ofPattern( "yyyy-MM-dd'T'HH:mm:ss.SSSZ" );
-
-    private static final TypeReference<HashMap<String,Object>> TYPE_REF = new TypeReference<>() {};
     private static final TypeReference<Object[]> TYPE_REF2 = new TypeReference<>() {};
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
+    /**
+     * Number of items to request per AQL page.
+     */
+    private static final int AQL_PAGE_SIZE = 10000;
+
+    /**
+     * How often a request gets sent when the server keeps responding with HTTP 429/503.
+     * Counted separately from the attempts on errors, so that neither kind of retry uses up the other's budget.
+     */
+    private static final int MAX_ATTEMPTS_WHEN_OVERLOADED = 5;
+
+    /**
+     * How long to wait after a HTTP 429/503 response that did not come with a Retry-After header.
+     */
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+    /**
+     * How often a GET request gets sent when it keeps failing with an I/O error or HTTP 500/502/504.
+     * Counted separately from the attempts when overloaded.
+     */
+    private static final int MAX_ATTEMPTS_ON_ERROR = 4;
+
+    /**
+     * Delay before the first retry after an error, doubled with each further attempt.
+     */
+    private static final long RETRY_BASE_DELAY_MILLIS = 250;
+
+    private static final long RETRY_MAX_DELAY_MILLIS = 10_000;
+
+    /**
+     * Max. number of file info requests a single folder listing keeps outstanding, so that a folder with
+     * thousands of files does not queue all of them at once.
+     */
+    private static final int MAX_FILE_REQUESTS_PER_LISTING = 32;
+
     public static final class Item {
 
         private final boolean isFolder;
         public final String path;
         public long sizeInBytes;
-        public ZonedDateTime lastUpdated = null;
+        /**
+         * Last update of a file or last modification of a folder as epoch millis, {@link Timestamps#NO_DATE} if unknown.
+         */
+        public long lastUpdated = Timestamps.NO_DATE;
 
         public Item(String path, boolean isFolder)
         {
@@ -68,6 +113,10 @@ public class ArtifactoryClient
             this.repoId = repoId;
         }
 
+        public String getType() {
+            return type;
+        }
+
         public boolean isRemote() {
             return "REMOTE".equalsIgnoreCase( type );
         }
@@ -81,15 +130,171 @@ public class ArtifactoryClient
         }
     }
 
-    private HttpClient client;
+    /**
+     * Requests that belong together, e.g. all requests of one scan.
+     *
+     * Requests of a group wait for a connection in a queue of their own. Once the group has been cancelled,
+     * its requests fail with a {@link CancellationException} instead of being sent.
+     */
+    public interface IRequestGroup
+    {
+        boolean isCancelled();
+    }
+
+    /**
+     * A folder and its direct children.
+     */
+    public static final class FolderInfo
+    {
+        /**
+         * When the folder was last modified as epoch millis, {@link Timestamps#NO_DATE} if the server did not tell.
+         */
+        public long lastModified = Timestamps.NO_DATE;
+        /**
+         * Direct children, sizes and dates of files are not known.
+         */
+        public final List<Item> children = new ArrayList<>();
+    }
+
+    /**
+     * Thrown when the server responds with anything but HTTP 200.
+     */
+    public static final class HttpStatusException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public final int statusCode;
+
+        public HttpStatusException(int statusCode, String statusText)
+        {
+            super( "Server returned " + statusCode + ( StringUtils.isBlank( statusText ) ? "" : " (" + statusText + ")" ) );
+            this.statusCode = statusCode;
+        }
+    }
+
+    /**
+     * Sends the file info requests of one folder listing, at most {@link #MAX_FILE_REQUESTS_PER_LISTING} at a time.
+     *
+     * Completes once the listing has been parsed and all requests have completed. The first failure fails it
+     * and drops the requests not sent yet.
+     */
+    private static final class FileRequests
+    {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final Deque<Supplier<CompletableFuture<?>>> queued = new ArrayDeque<>();
+        private int outstanding;
+        private boolean listed;
 
+        public void add(Supplier<CompletableFuture<?>> request)
+        {
+            synchronized (this)
+            {
+                if ( outstanding >= MAX_FILE_REQUESTS_PER_LISTING )
+                {
+                    queued.add( request );
+                    return;
+                }
+                outstanding++;
+            }
+            send( request );
+        }
+
+        /**
+         * Invoked once the listing has been parsed.
+         *
+         * @param failure why listing failed, <code>null</code> on success
+         */
+        public void listed(Throwable failure)
+        {
+            if ( failure != null )
+            {
+                fail( failure );
+                return;
+            }
+            final boolean finished;
+            synchronized (this)
+            {
+                listed = true;
+                finished = outstanding == 0;
+            }
+            if ( finished ) {
+                done.complete( null );
+            }
+        }
+
+        private void send(Supplier<CompletableFuture<?>> request)
+        {
+            CompletableFuture<?> future;
+            try
+            {
+                future = request.get();
+            }
+            catch (RuntimeException e)
+            {
+                future = CompletableFuture.failedFuture( e );
+            }
+            future.whenComplete( (ignored, t) ->
+            {
+                if ( t != null ) {
+                    fail( t );
+                }
+                final Supplier<CompletableFuture<?>> next;
+                final boolean finished;
+                synchronized (this)
+                {
+                    next = queued.poll();
+                    if ( next == null ) {
+                        outstanding--;
+                    }
+                    finished = listed && outstanding == 0;
+                }
+                if ( next != null ) {
+                    send( next );
+                } else if ( finished ) {
+                    done.complete( null );
+                }
+            });
+        }
+
+        private void fail(Throwable t)
+        {
+            synchronized (this) {
+                queued.clear();
+            }
+            done.completeExceptionally( t instanceof CompletionException ? t.getCause() : t );
+        }
+    }
+
+    /**
+     * Available HTTP implementations.
+     */
+    public enum Transport
+    {
+        /**
+         * Blocking commons-httpclient 3.x, one thread per request in flight.
+         */
+        COMMONS_HTTPCLIENT,
+        /**
+         * Non-blocking JDK HTTP client with HTTP/2 and gzip support.
+         */
+        JDK_ASYNC
+    }
+
+    private ITransport transport;
+    private ExecutorService parseExecutor;
+
+    private volatile Transport transportType = Transport.JDK_ASYNC;
     private volatile int maxHostConnections = 10;
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter( maxHostConnections );
+    private final AtomicInteger activeParsers = new AtomicInteger();
+    private final ScanMetrics metrics = new ScanMetrics( limiter::getQueueLength, limiter::getInFlight, limiter::getLimit, activeParsers::get );
+    private final HedgingPolicy hedging = new HedgingPolicy( metrics, EnumSet.of( ScanMetrics.Endpoint.FOLDER_LISTING, ScanMetrics.Endpoint.FILE_INFO ) );
+    private volatile ResponseCache responseCache;
     private volatile String apiUrl;
     private volatile String user;
     private volatile String password;
 
     private volatile boolean needsReconnect = true;
-    private volatile boolean isConnected = false;
 
     public ArtifactoryClient() {
     }
@@ -105,6 +310,62 @@ public class ArtifactoryClient
         Validate.isTrue( maxHostConnections >= 1 , "Host connections need to be >= 1 ");
         this.needsReconnect |= this.maxHostConnections != maxHostConnections;
         this.maxHostConnections = maxHostConnections;
+        this.limiter.setMaxLimit( maxHostConnections );
+    }
+
+    /**
+     * Returns the limiter that adapts the number of concurrent requests to how fast the server responds.
+     *
+     * Its limit never exceeds the max. number of host connections.
+     *
+     * @return limiter
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter()
+    {
+        return limiter;
+    }
+
+    /**
+     * Cancels all requests of a group that are still waiting to be sent.
+     *
+     * Their futures fail with a {@link CancellationException}, requests already sent are not affected.
+     * Call this once the group has been cancelled.
+     *
+     * @param group group the requests were made with
+     */
+    public void cancelRequests(IRequestGroup group)
+    {
+        limiter.cancel( group );
+    }
+
+    /**
+     * @return request metrics of this client
+     */
+    public ScanMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Sets the cache GET responses are revalidated against, so that unchanged responses don't get transferred again.
+     *
+     * @param cache cache or <code>null</code> to not cache responses
+     */
+    public void setResponseCache(ResponseCache cache)
+    {
+        this.responseCache = cache;
+    }
+
+    public void setTransport(Transport transportType)
+    {
+        Validate.notNull( transportType, "transport must not be null" );
+        this.needsReconnect |= this.transportType != transportType;
+        this.transportType = transportType;
+    }
+
+    public int getMaxHostConnections()
+    {
+        return maxHostConnections;
     }
 
     public boolean isValid()
@@ -123,9 +384,7 @@ public class ArtifactoryClient
         this.password = password;
     }
 
-    private MultiThreadedHttpConnectionManager conManager;
-
-    public void connect() throws URIException
+    public synchronized void connect() throws IOException
     {
         if ( isConnected() )
         {
@@ -133,59 +392,43 @@ public class ArtifactoryClient
                 return;
             }
             System.out.println("Disconnecting, configuration has changed");
-            try
-            {
-                disconnect();
-            } finally {
-                needsReconnect = false;
-            }
+            disconnect();
         }
 
-        // host configuration
-        final HostConfiguration hostConfiguration = new HostConfiguration();
-        final URI uri = new URI( apiUrl, true );
-        hostConfiguration.setHost( uri );
+        transport = transportType == Transport.JDK_ASYNC ?
+            new JdkHttpTransport( apiUrl, user, password ) :
+            new CommonsHttpTransport( apiUrl, user, password, maxHostConnections );
 
-        // connection manager params
-        final HttpConnectionManagerParams params = new HttpConnectionManagerParams();
-        params.setMaxConnectionsPerHost( hostConfiguration, maxHostConnections );
-
-        // connection manager
-        conManager = new MultiThreadedHttpConnectionManager();
-        conManager.setParams( params );
-
-        // http client
-        HttpClient client = new HttpClient(conManager);
-        client.setHostConfiguration( hostConfiguration );
-
-        client.getParams().setAuthenticationPreemptive( true );
-        final Credentials credentials = new UsernamePasswordCredentials(user, password);
-        int port = uri.getPort();
-        if ( port == -1 ) {
-            port = "https".equalsIgnoreCase( uri.getScheme() ) ? 443 : 80;
-        }
-        client.getState().setCredentials(new AuthScope( uri.getHost(), port, AuthScope.ANY_REALM), credentials);
-
-        this.client = client;
+        // one thread per permit of the concurrency limiter, so parsing a response never waits for a thread
+        final AtomicInteger id = new AtomicInteger();
+        parseExecutor = Executors.newFixedThreadPool( maxHostConnections, r ->
+        {
+            final Thread t = new Thread(r);
+            t.setDaemon( true );
+            t.setName("parser-"+id.incrementAndGet());
+            return t;
+        });
+        needsReconnect = false;
     }
 
-    public void disconnect()
+    public synchronized void disconnect()
     {
-        client = null;
-        if ( conManager != null )
+        if ( transport != null )
         {
             try
             {
-                conManager.shutdown();
+                transport.close();
+                parseExecutor.shutdownNow();
             } finally {
-                conManager = null;
+                transport = null;
+                parseExecutor = null;
             }
         }
     }
 
-    public boolean isConnected()
+    public synchronized boolean isConnected()
     {
-        return client != null;
+        return transport != null;
     }
 
     public boolean needsReconnect()
@@ -195,13 +438,12 @@ public class ArtifactoryClient
 
     public List<Repository> getRepositories()
     {
-        final Object[] result = rest( "/repositories", ArtifactoryClient::parseJSONArray );
+        final Object[] result = rest( ScanMetrics.Endpoint.REPOSITORIES, "/repositories", ArtifactoryClient::parseJSONArray );
 
         final List<Repository> resultList = new ArrayList<>();
         for ( Object obj : result )
         {
             final Map<String,Object> map = (Map<String, Object>) obj;
-            System.out.println("Repository: "+map);
             var repoType = (String) map.get("type");
             var repoId = (String) map.get("key");
             resultList.add( new Repository( repoId, repoType ) );
@@ -209,37 +451,197 @@ public class ArtifactoryClient
         return resultList;
     }
 
-    public List<Item> getChildren(String repoId,String path)
+    /**
+     * Lists the direct children of a folder.
+     *
+     * @param repoId repository
+     * @param path folder to list, either empty or starting with a '/'
+     * @param consumer invoked for each child, possibly from several threads at once
+     * @see #getChildrenAsync(String, String, Consumer)
+     */
+    public void getChildren(String repoId,String path,Consumer<Item> consumer)
+    {
+        join( getChildrenAsync( repoId, path, consumer ) );
+    }
+
+    /**
+     * Lists the direct children of a folder without blocking.
+     *
+     * Sub-folders are passed to the consumer while the response is still being parsed. Files need one
+     * more request each to look up their size and last update, those requests are sent as soon as the
+     * file shows up in the listing, up to {@link #MAX_FILE_REQUESTS_PER_LISTING} at a time.
+     *
+     * @param repoId repository
+     * @param path folder to list, either empty or starting with a '/'
+     * @param consumer invoked for each child, possibly from several threads at once. Must not block.
+     * @return future that completes with the folder's last modification date as epoch millis (or {@link Timestamps#NO_DATE}
+     * if unknown) once all children have been passed to the consumer
+     */
+    public CompletableFuture<Long> getChildrenAsync(String repoId,String path,Consumer<Item> consumer)
+    {
+        return getChildrenAsync( repoId, path, consumer, null, false );
+    }
+
+    /**
+     * Lists the direct children of a folder without blocking.
+     *
+     * @param repoId repository
+     * @param path folder to list, either empty or starting with a '/'
+     * @param consumer invoked for each child, possibly from several threads at once. Must not block.
+     * @param group group of requests this one belongs to, <code>null</code> to queue it with the other requests for the same repository
+     * @param urgent whether the requests should be sent before all other queued requests, e.g. because the user is waiting for them
+     * @return future that completes with the folder's last modification date as epoch millis (or {@link Timestamps#NO_DATE}
+     * if unknown) once all children have been passed to the consumer
+     * @see #getChildrenAsync(String, String, Consumer)
+     */
+    public CompletableFuture<Long> getChildrenAsync(String repoId,String path,Consumer<Item> consumer,IRequestGroup group,boolean urgent)
+    {
+        final FileRequests files = new FileRequests();
+        final AtomicLong folderLastModified = new AtomicLong( Timestamps.NO_DATE );
+        final CompletableFuture<Integer> listing = restAsync( ScanMetrics.Endpoint.FOLDER_LISTING, storagePath( repoId, path ), stream -> parseChildren( stream,
+            folderLastModified::set,
+            uri -> consumer.accept( new Item( uri, true ) ),
+            uri ->
+            {
+                final Item item = new Item( uri, false );
+                files.add( () -> restAsync( ScanMetrics.Endpoint.FILE_INFO, storagePath( repoId, path + uri ), fileStream -> parseFileInfo( fileStream, item ), group, urgent ).thenAccept( consumer ) );
+            }), group, urgent );
+        listing.whenComplete( (ignored, t) -> files.listed( t ) );
+        return listing
+            .thenCompose( ignored -> files.done )
+            .thenApply( ignored -> folderLastModified.get() );
+    }
+
+    /**
+     * Looks up when a folder was last modified and lists its direct children without looking up file sizes.
+     *
+     * @param repoId repository
+     * @param path folder, either empty or starting with a '/'
+     * @return future
+     */
+    public CompletableFuture<FolderInfo> getFolderInfoAsync(String repoId,String path)
+    {
+        return getFolderInfoAsync( repoId, path, null );
+    }
+
+    /**
+     * Looks up when a folder was last modified and lists its direct children without looking up file sizes.
+     *
+     * @param repoId repository
+     * @param path folder, either empty or starting with a '/'
+     * @param group group of requests this one belongs to, <code>null</code> to queue it with the other requests for the same repository
+     * @return future
+     */
+    public CompletableFuture<FolderInfo> getFolderInfoAsync(String repoId,String path,IRequestGroup group)
+    {
+        final FolderInfo info = new FolderInfo();
+        return restAsync( ScanMetrics.Endpoint.FOLDER_LISTING, storagePath( repoId, path ), stream -> parseChildren( stream,
+            lastModified -> info.lastModified = lastModified,
+            uri -> info.children.add( new Item( uri, true ) ),
+            uri -> info.children.add( new Item( uri, false ) ) ), group, false )
+            .thenApply( ignored -> info );
+    }
+
+    /**
+     * Looks up size and last update of a file.
+     *
+     * @param repoId repository
+     * @param path file, starting with a '/'
+     * @return future
+     */
+    public CompletableFuture<Item> getFileInfoAsync(String repoId,String path)
     {
-        final Map<String, Object> result = rest( "/storage/"+repoId+path, ArtifactoryClient::parseJSONMap );
+        return getFileInfoAsync( repoId, path, null );
+    }
 
-        final List<Map<String,Object>> children = (List<Map<String, Object>>) result.get( "children" );
-        List<Item> items = new ArrayList<>();
-        for (Map<String, Object> entry : children )
+    /**
+     * Looks up size and last update of a file.
+     *
+     * @param repoId repository
+     * @param path file, starting with a '/'
+     * @param group group of requests this one belongs to, <code>null</code> to queue it with the other requests for the same repository
+     * @return future
+     */
+    public CompletableFuture<Item> getFileInfoAsync(String repoId,String path,IRequestGroup group)
+    {
+        final Item item = new Item( path.substring( path.lastIndexOf( '/' ) ), false );
+        return restAsync( ScanMetrics.Endpoint.FILE_INFO, storagePath( repoId, path ), stream -> parseFileInfo( stream, item ), group, false );
+    }
+
+    static int parseChildren(InputStream stream, LongConsumer lastModified, Consumer<String> folders, Consumer<String> files)
+    {
+        try ( JsonParser parser = MAPPER.getFactory().createParser( stream ) )
         {
-            final String uri = (String) entry.get("uri");
-            final Boolean isFolder = (Boolean) entry.get("folder");
-            final Item item;
-            if ( isFolder != null && isFolder ) {
-                // folder
-                item = new Item(uri,true);
-            } else {
-                // item
-                item = new Item( uri, false );
-                final Map<String, Object> props = rest( "/storage/"+repoId+path+uri, ArtifactoryClient::parseJSONMap );
-                item.sizeInBytes = Long.parseLong( (String) props.get("size") );
-                item.lastUpdated = date( (String) props.get("lastUpdated"));
+            if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+                throw new IOException("Expected a JSON object");
             }
-            items.add( item );
+            int count = 0;
+            while ( parser.nextToken() == JsonToken.FIELD_NAME )
+            {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if ( "lastModified".equals( field ) )
+                {
+                    lastModified.accept( date( parser ) );
+                    continue;
+                }
+                if ( ! "children".equals( field ) ) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while ( parser.nextToken() == JsonToken.START_OBJECT )
+                {
+                    String uri = null;
+                    boolean isFolder = false;
+                    while ( parser.nextToken() == JsonToken.FIELD_NAME )
+                    {
+                        final String key = parser.getCurrentName();
+                        parser.nextToken();
+                        switch( key )
+                        {
+                            case "uri":    uri = parser.getText(); break;
+                            case "folder": isFolder = parser.getBooleanValue(); break;
+                            default:
+                                parser.skipChildren();
+                        }
+                    }
+                    if ( isFolder ) {
+                        folders.accept( uri );
+                    } else {
+                        files.accept( uri );
+                    }
+                    count++;
+                }
+            }
+            return count;
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
         }
-        return items;
     }
 
-    private static Object[] parseJSONArray(InputStream stream)
+    static Item parseFileInfo(InputStream stream, Item item)
     {
-        try
+        try ( JsonParser parser = MAPPER.getFactory().createParser( stream ) )
         {
-            return MAPPER.readValue(stream, TYPE_REF2);
+            if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+                throw new IOException("Expected a JSON object");
+            }
+            while ( parser.nextToken() == JsonToken.FIELD_NAME )
+            {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                switch( field )
+                {
+                    // size is sent as a string
+                    case "size":        item.sizeInBytes = parser.getValueAsLong(); break;
+                    case "lastUpdated": item.lastUpdated = date( parser ); break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return item;
         }
         catch (IOException e)
         {
@@ -247,11 +649,188 @@ public class ArtifactoryClient
         }
     }
 
-    private static Map<String,Object> parseJSONMap(InputStream stream)
+    /**
+     * Enumerates all files and folders of a repository using paginated AQL queries.
+     *
+     * Paths of the items passed to the consumer are relative to the repository root
+     * and always start with a '/'.
+     *
+     * @param repoId repository to enumerate
+     * @param interrupt checked before each page is requested
+     * @param consumer invoked for each item as soon as it has been parsed
+     * @return number of items enumerated
+     * @throws HttpStatusException if the server rejected the query (for example because AQL is disabled)
+     */
+    public long getAllItems(String repoId, BooleanSupplier interrupt, Consumer<Item> consumer) throws InterruptedException
+    {
+        final String quotedRepoId = new String( JsonStringEncoder.getInstance().quoteAsString( repoId ) );
+        long offset = 0;
+        while ( true )
+        {
+            if ( interrupt.getAsBoolean() ) {
+                throw new InterruptedException("Interrupted by user");
+            }
+            final String query = "items.find({\"repo\":\"" + quotedRepoId + "\",\"type\":\"any\"})" +
+                ".include(\"path\",\"name\",\"size\",\"updated\",\"modified\",\"type\")" +
+                ".sort({\"$asc\":[\"path\",\"name\"]})" +
+                ".offset(" + offset + ").limit(" + AQL_PAGE_SIZE + ")";
+            final int count = post( ScanMetrics.Endpoint.AQL_SEARCH, "/search/aql", query, stream -> parseAQLResults( stream, consumer ) );
+            offset += count;
+            if ( count < AQL_PAGE_SIZE ) {
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * Lists the files and folders below a path using the storage API's file list.
+     *
+     * Paths of the items passed to the consumer are relative to the repository root
+     * and always start with a '/'.
+     *
+     * @param repoId repository to list
+     * @param path path to list, either empty or starting with a '/'
+     * @param deep whether to list everything below the path with a single request or only the path's direct children
+     * @param group group of requests this one belongs to, <code>null</code> to queue it with the other requests for the same repository
+     * @param consumer invoked for each item as soon as it has been parsed
+     * @return future that completes with the number of items listed, fails with a {@link HttpStatusException}
+     * if the server rejected the request
+     */
+    public CompletableFuture<Long> getFileListAsync(String repoId, String path, boolean deep, IRequestGroup group, Consumer<Item> consumer)
+    {
+        final String url = storagePath( repoId, path ) + "?list&deep=" + ( deep ? 1 : 0 ) + "&listFolders=1&mdTimestamps=1";
+        return restAsync( ScanMetrics.Endpoint.DEEP_LISTING, url, stream -> parseFileList( stream, path, group == null ? () -> false : group::isCancelled, consumer ), group, false );
+    }
+
+    static long parseFileList(InputStream stream, Consumer<Item> consumer)
+    {
+        return parseFileList( stream, "", () -> false, consumer );
+    }
+
+    /**
+     * @param prefix prepended to the paths of all items
+     * @param interrupt checked for each item
+     * @throws CancellationException once <code>interrupt</code> returns <code>true</code>
+     */
+    static long parseFileList(InputStream stream, String prefix, BooleanSupplier interrupt, Consumer<Item> consumer)
+    {
+        try ( JsonParser parser = MAPPER.getFactory().createParser( stream ) )
+        {
+            if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+                throw new IOException("Expected a JSON object");
+            }
+            long count = 0;
+            while ( parser.nextToken() == JsonToken.FIELD_NAME )
+            {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if ( ! "files".equals( field ) ) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while ( parser.nextToken() == JsonToken.START_OBJECT )
+                {
+                    String uri = null;
+                    long lastModified = Timestamps.NO_DATE;
+                    boolean isFolder = false;
+                    long size = 0;
+                    while ( parser.nextToken() == JsonToken.FIELD_NAME )
+                    {
+                        final String key = parser.getCurrentName();
+                        parser.nextToken();
+                        switch( key )
+                        {
+                            case "uri":          uri = parser.getText(); break;
+                            case "lastModified": lastModified = date( parser ); break;
+                            case "folder":       isFolder = parser.getBooleanValue(); break;
+                            case "size":         size = parser.getLongValue(); break;
+                            default:
+                                parser.skipChildren();
+                        }
+                    }
+                    if ( interrupt.getAsBoolean() ) {
+                        throw new CancellationException("Listing cancelled");
+                    }
+                    final Item item = new Item( prefix + uri, isFolder );
+                    item.sizeInBytes = isFolder ? 0 : size;
+                    item.lastUpdated = lastModified;
+                    consumer.accept( item );
+                    count++;
+                }
+            }
+            return count;
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static int parseAQLResults(InputStream stream, Consumer<Item> consumer)
+    {
+        try ( JsonParser parser = MAPPER.getFactory().createParser( stream ) )
+        {
+            if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+                throw new IOException("Expected a JSON object");
+            }
+            int count = 0;
+            while ( parser.nextToken() == JsonToken.FIELD_NAME )
+            {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if ( ! "results".equals( field ) ) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while ( parser.nextToken() == JsonToken.START_OBJECT )
+                {
+                    String path = null;
+                    String name = null;
+                    String type = null;
+                    long updated = Timestamps.NO_DATE;
+                    long modified = Timestamps.NO_DATE;
+                    long size = 0;
+                    while ( parser.nextToken() == JsonToken.FIELD_NAME )
+                    {
+                        final String key = parser.getCurrentName();
+                        parser.nextToken();
+                        switch( key )
+                        {
+                            case "path":     path = parser.getText(); break;
+                            case "name":     name = parser.getText(); break;
+                            case "type":     type = parser.getText(); break;
+                            case "updated":  updated = date( parser ); break;
+                            case "modified": modified = date( parser ); break;
+                            case "size":     size = parser.getLongValue(); break;
+                            default:
+                                parser.skipChildren();
+                        }
+                    }
+                    count++;
+                    if ( ".".equals( path ) && ".".equals( name ) ) {
+                        // the repository's root folder, counts for paging but is no item of its own
+                        continue;
+                    }
+                    final String fullPath = ".".equals( path ) ? "/" + name : "/" + path + "/" + name;
+                    final Item item = new Item( fullPath, "folder".equals( type ) );
+                    item.sizeInBytes = size;
+                    item.lastUpdated = item.isFolder() ? modified : updated;
+                    consumer.accept( item );
+                }
+            }
+            return count;
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Object[] parseJSONArray(InputStream stream)
     {
         try
         {
-            return MAPPER.readValue(stream, TYPE_REF);
+            return MAPPER.readValue(stream, TYPE_REF2);
         }
         catch (IOException e)
         {
@@ -259,28 +838,442 @@ public class ArtifactoryClient
         }
     }
 
-    private <T> T rest(String url, Function<InputStream, T> func)
+    private <T> T rest(ScanMetrics.Endpoint endpoint, String url, Function<InputStream, T> func)
+    {
+        return join( restAsync( endpoint, url, func ) );
+    }
+
+    private <T> CompletableFuture<T> restAsync(ScanMetrics.Endpoint endpoint, String url, Function<InputStream, T> func)
+    {
+        return restAsync( endpoint, url, func, null, false );
+    }
+
+    private <T> CompletableFuture<T> restAsync(ScanMetrics.Endpoint endpoint, String url, Function<InputStream, T> func, IRequestGroup group, boolean urgent)
+    {
+        return executeAsync( endpoint, ITransport.Request.get( url ), func, group, urgent, 1, 1 );
+    }
+
+    private <T> T post(ScanMetrics.Endpoint endpoint, String url, String body, Function<InputStream, T> func)
+    {
+        return join( executeAsync( endpoint, ITransport.Request.post( url, body, "text/plain" ), func, null, false, 1, 1 ) );
+    }
+
+    private static <T> T join(CompletableFuture<T> future)
     {
         try
         {
-            // execute method
-            connect();
-            final HttpMethod httpMethod = new GetMethod( API_URL + url );
-            client.executeMethod( httpMethod );
-            if ( httpMethod.getStatusCode() != 200 )
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = unwrap( e );
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException( cause );
+        }
+    }
+
+    private static Throwable unwrap(Throwable t)
+    {
+        while ( ( t instanceof CompletionException || t instanceof ExecutionException ) && t.getCause() != null ) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * Returns the storage API path of a repository item.
+     *
+     * Repository ID and path segments get percent-encoded, so that items whose names contain spaces or
+     * characters like '[', '|' or '%' can be requested.
+     *
+     * @param repoId repository
+     * @param path either empty or starting with a '/'
+     * @return path relative to the API URL
+     */
+    static String storagePath(String repoId, String path)
+    {
+        final StringBuilder result = new StringBuilder( "/storage/" );
+        percentEncode( repoId, false, result );
+        percentEncode( path, true, result );
+        return result.toString();
+    }
+
+    private static void percentEncode(String value, boolean keepSlashes, StringBuilder out)
+    {
+        for ( byte b : value.getBytes( StandardCharsets.UTF_8 ) )
+        {
+            final int c = b & 0xff;
+            if ( ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' )
+                || c == '-' || c == '.' || c == '_' || c == '~' || ( keepSlashes && c == '/' ) )
             {
-                throw new RuntimeException( "Server returned " + httpMethod.getStatusCode() + " (" + httpMethod.getStatusText() + ")" );
+                out.append( (char) c );
+            } else {
+                out.append( '%' ).append( Character.toUpperCase( Character.forDigit( c >> 4, 16 ) ) ).append( Character.toUpperCase( Character.forDigit( c & 0xf, 16 ) ) );
             }
-            return func.apply( httpMethod.getResponseBodyAsStream() );
         }
-        catch(IOException e) {
-            throw new RuntimeException(e);
+    }
+
+    /**
+     * Returns the repository a request is about, so that the concurrency limiter
+     * can serve requests for different repositories in turn.
+     *
+     * @return repository ID or <code>null</code> if the request does not address a single repository's storage
+     */
+    private static String getRepoId(String path)
+    {
+        final String prefix = "/storage/";
+        if ( ! path.startsWith( prefix ) ) {
+            return null;
+        }
+        int end = prefix.length();
+        while ( end < path.length() && path.charAt( end ) != '/' && path.charAt( end ) != '?' ) {
+            end++;
+        }
+        return path.substring( prefix.length(), end );
+    }
+
+    /**
+     * Sends a request once the concurrency limiter allows it and parses the response on the parse executor.
+     *
+     * The limiter's permit is held until the response has been parsed, since that's when the
+     * connection gets released. Requests wait for their permits in a queue per group (or per repository if they
+     * have no group), urgent requests get their permits before all others. Requests of a cancelled group are not sent.
+     *
+     * GET requests that fail before their response is parsed (I/O errors, HTTP 500/502/504) get sent again after a
+     * randomized, exponentially growing delay. Responses are only parsed once, so retries never pass an item to
+     * a consumer twice. Requests answered with HTTP 429/503 get sent again once the server allows it. Both kinds of
+     * retries have their own limit, <code>overloadedAttempt</code> and <code>errorAttempt</code> count the attempts of each.
+     *
+     * If a response cache is set, GET requests for cached responses are sent with their validators and a HTTP 304
+     * response gets answered with the cached body. Responses that come with validators are written to the cache.
+     */
+    private <T> CompletableFuture<T> executeAsync(ScanMetrics.Endpoint endpoint, ITransport.Request request, Function<InputStream, T> func, IRequestGroup group, boolean urgent, int overloadedAttempt, int errorAttempt)
+    {
+        final ITransport transport;
+        final ExecutorService parser;
+        synchronized (this)
+        {
+            try
+            {
+                connect();
+            }
+            catch (IOException e)
+            {
+                return CompletableFuture.failedFuture( new RuntimeException(e) );
+            }
+            transport = this.transport;
+            parser = this.parseExecutor;
+        }
+
+        if ( group != null && group.isCancelled() ) {
+            return CompletableFuture.failedFuture( new CancellationException("Request cancelled") );
+        }
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Object permitKey = group != null ? group : getRepoId( request.path );
+        limiter.acquireAsync( permitKey, urgent ).whenComplete( (permit, cancelled) ->
+        {
+            if ( cancelled != null )
+            {
+                result.completeExceptionally( cancelled );
+                return;
+            }
+            if ( group != null && group.isCancelled() )
+            {
+                // cancelled while waiting
+                limiter.release( -1 );
+                result.completeExceptionally( new CancellationException("Request cancelled") );
+                return;
+            }
+            final ResponseCache cache = "GET".equals( request.method ) ? responseCache : null;
+            final String cacheKey = cache == null ? null : user + "@" + apiUrl + request.path;
+            final ResponseCache.Entry cached = cache == null ? null : cache.get( cacheKey );
+            try
+            {
+                ITransport.Request toSend = request;
+                if ( cached != null && cached.etag != null ) {
+                    toSend = toSend.withHeader( "If-None-Match", cached.etag );
+                }
+                if ( cached != null && cached.lastModified != null ) {
+                    toSend = toSend.withHeader( "If-Modified-Since", cached.lastModified );
+                }
+
+                final long start = System.nanoTime();
+                sendHedged( endpoint, transport, toSend, permitKey ).whenComplete( (response, sendFailure) ->
+                {
+                    if ( sendFailure != null )
+                    {
+                        closeQuietly( cached );
+                        metrics.requestFailed( endpoint );
+                        limiter.release( -1 );
+                        retryOrFail( endpoint, request, func, group, urgent, overloadedAttempt, errorAttempt, unwrap( sendFailure ), result );
+                        return;
+                    }
+                    final long latency = System.nanoTime() - start;
+                    metrics.responseReceived( endpoint, latency, response.statusCode );
+                    if ( response.statusCode == 429 || response.statusCode == 503 )
+                    {
+                        closeQuietly( response );
+                        closeQuietly( cached );
+                        limiter.overloaded( getRetryAfterMillis( response ) );
+                        if ( overloadedAttempt < MAX_ATTEMPTS_WHEN_OVERLOADED ) {
+                            forward( executeAsync( endpoint, request, func, group, urgent, overloadedAttempt + 1, errorAttempt ), result );
+                        } else {
+                            result.completeExceptionally( new HttpStatusException( response.statusCode, response.statusText ) );
+                        }
+                        return;
+                    }
+                    if ( response.statusCode == 500 || response.statusCode == 502 || response.statusCode == 504 )
+                    {
+                        closeQuietly( response );
+                        closeQuietly( cached );
+                        limiter.release( latency );
+                        retryOrFail( endpoint, request, func, group, urgent, overloadedAttempt, errorAttempt, new HttpStatusException( response.statusCode, response.statusText ), result );
+                        return;
+                    }
+                    try
+                    {
+                        parser.execute( () ->
+                        {
+                            activeParsers.incrementAndGet();
+                            try ( response; cached )
+                            {
+                                if ( response.statusCode == 304 && cached != null )
+                                {
+                                    metrics.cacheHit( endpoint );
+                                    result.complete( func.apply( cached.body ) );
+                                    return;
+                                }
+                                if ( response.statusCode != 200 )
+                                {
+                                    throw new HttpStatusException( response.statusCode, response.statusText );
+                                }
+                                final InputStream body = metrics.countBytes( endpoint, response.body );
+                                final ResponseCache.Writer writer = cache == null ? null :
+                                    cache.store( cacheKey, response.getHeader( "ETag" ), response.getHeader( "Last-Modified" ), body );
+                                if ( writer == null )
+                                {
+                                    result.complete( func.apply( body ) );
+                                    return;
+                                }
+                                final T value;
+                                try
+                                {
+                                    value = func.apply( writer );
+                                }
+                                catch (Throwable t)
+                                {
+                                    writer.abort();
+                                    throw t;
+                                }
+                                writer.commit();
+                                result.complete( value );
+                            }
+                            catch (Throwable t)
+                            {
+                                result.completeExceptionally( t );
+                            }
+                            finally
+                            {
+                                activeParsers.decrementAndGet();
+                                limiter.release( latency );
+                            }
+                        });
+                    }
+                    catch (RejectedExecutionException e)
+                    {
+                        // disconnected in the meantime
+                        closeQuietly( response );
+                        closeQuietly( cached );
+                        limiter.release( -1 );
+                        result.completeExceptionally( e );
+                    }
+                });
+            }
+            catch (RuntimeException e)
+            {
+                // e.g. a path the transport can't turn into a URL, nothing has been sent
+                closeQuietly( cached );
+                metrics.requestFailed( endpoint );
+                limiter.release( -1 );
+                result.completeExceptionally( e );
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sends a GET request again after a delay, or fails.
+     *
+     * Delays are drawn at random between zero and an exponentially growing bound ("full jitter"), so requests
+     * that failed at the same time don't hit the server at the same time again.
+     */
+    private <T> void retryOrFail(ScanMetrics.Endpoint endpoint, ITransport.Request request, Function<InputStream, T> func, IRequestGroup group, boolean urgent,
+                                 int overloadedAttempt, int errorAttempt, Throwable failure, CompletableFuture<T> result)
+    {
+        if ( ! "GET".equals( request.method ) || errorAttempt >= MAX_ATTEMPTS_ON_ERROR )
+        {
+            result.completeExceptionally( failure );
+            return;
+        }
+        metrics.requestRetried( endpoint );
+        final long bound = Math.min( RETRY_MAX_DELAY_MILLIS, RETRY_BASE_DELAY_MILLIS << ( errorAttempt - 1 ) );
+        final long delay = ThreadLocalRandom.current().nextLong( bound + 1 );
+        CompletableFuture.delayedExecutor( delay, TimeUnit.MILLISECONDS ).execute( () ->
+            forward( executeAsync( endpoint, request, func, group, urgent, overloadedAttempt, errorAttempt + 1 ), result ) );
+    }
+
+    /**
+     * Sends a request, sending a duplicate if the response takes unusually long.
+     *
+     * Only GET requests to some endpoints get hedged, see {@link HedgingPolicy}. The first response received wins,
+     * the other one gets closed without being read. The duplicate takes a permit from the concurrency limiter like any
+     * other request, ahead of the requests waiting for one, and holds it until both requests have completed.
+     *
+     * @return future that completes with the first response, or fails once all requests sent have failed
+     */
+    private CompletableFuture<ITransport.Response> sendHedged(ScanMetrics.Endpoint endpoint, ITransport transport, ITransport.Request request, Object permitKey)
+    {
+        hedging.requestSent();
+        final long delay = "GET".equals( request.method ) ? hedging.getDelayMillis( endpoint ) : -1;
+        if ( delay < 0 ) {
+            return transport.send( request );
+        }
+        final CompletableFuture<ITransport.Response> result = new CompletableFuture<>();
+        // requests that have neither responded nor failed yet
+        final AtomicInteger pending = new AtomicInteger( 1 );
+        final BiConsumer<ITransport.Response,Throwable> onResponse = (response, t) ->
+        {
+            if ( t == null )
+            {
+                if ( ! result.complete( response ) ) {
+                    closeQuietly( response );
+                }
+            }
+            else if ( pending.decrementAndGet() == 0 ) {
+                result.completeExceptionally( t );
+            }
+        };
+        final CompletableFuture<ITransport.Response> original = transport.send( request );
+        original.whenComplete( onResponse );
+        CompletableFuture.delayedExecutor( delay, TimeUnit.MILLISECONDS ).execute( () ->
+        {
+            if ( result.isDone() ) {
+                return;
+            }
+            limiter.acquireAsync( permitKey, true ).whenComplete( (permit, cancelled) ->
+            {
+                if ( cancelled != null ) {
+                    return;
+                }
+                if ( result.isDone() || ! hedging.tryHedge() )
+                {
+                    limiter.release( -1 );
+                    return;
+                }
+                pending.incrementAndGet();
+                metrics.requestHedged( endpoint );
+                CompletableFuture<ITransport.Response> duplicate;
+                try
+                {
+                    duplicate = transport.send( request );
+                }
+                catch (RuntimeException e)
+                {
+                    // counts as a failed response, the result must not wait for it forever
+                    duplicate = CompletableFuture.failedFuture( e );
+                }
+                duplicate.whenComplete( (response, t) ->
+                {
+                    if ( t == null && result.complete( response ) ) {
+                        metrics.hedgeWon( endpoint );
+                    } else {
+                        onResponse.accept( response, t );
+                    }
+                });
+                // whichever request loses still occupies a connection until it has completed
+                CompletableFuture.allOf( original, duplicate ).whenComplete( (ignored, t) -> limiter.release( -1 ) );
+            });
+        });
+        return result;
+    }
+
+    private static <T> void forward(CompletableFuture<T> source, CompletableFuture<T> target)
+    {
+        source.whenComplete( (value, t) ->
+        {
+            if ( t != null ) {
+                target.completeExceptionally( t );
+            } else {
+                target.complete( value );
+            }
+        });
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if ( closeable == null ) {
+            return;
         }
+        try
+        {
+            closeable.close();
+        }
+        catch (IOException e)
+        {
+            // nothing we can do
+        }
+    }
+
+    private static long getRetryAfterMillis(ITransport.Response response)
+    {
+        final String header = response.getHeader( "Retry-After" );
+        if ( StringUtils.isNotBlank( header ) )
+        {
+            final String value = header.trim();
+            try
+            {
+                return Math.max( 0, Long.parseLong( value ) * 1000 );
+            }
+            catch (NumberFormatException e)
+            {
+                try
+                {
+                    return Math.max( 0, DateUtil.parseDate( value ).getTime() - System.currentTimeMillis() );
+                }
+                catch (DateParseException e2)
+                {
+                    System.err.println( "Ignoring unparseable Retry-After header: " + value );
+                }
+            }
+        }
+        return DEFAULT_RETRY_AFTER_MILLIS;
     }
 
-    private static ZonedDateTime date(String s)
+    /**
+     * @return epoch millis
+     */
+    static long date(String s)
     {
-        s = s.replace( "+02:00" , "+0200").replace( "+01:00", "+0100");
-        return ZonedDateTime.parse( s, JSON_DATE_FORMAT );
+        return Timestamps.parse( s );
+    }
+
+    /**
+     * Parses the current value as timestamp, straight from the parser's buffer.
+     *
+     * @return epoch millis, {@link Timestamps#NO_DATE} for <code>null</code>
+     */
+    static long date(JsonParser parser) throws IOException
+    {
+        if ( parser.getCurrentToken() == JsonToken.VALUE_NULL ) {
+            return Timestamps.NO_DATE;
+        }
+        return Timestamps.parse( parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength() );
     }
 }
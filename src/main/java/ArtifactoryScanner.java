@@ -1,133 +1,877 @@
 import org.apache.commons.lang3.Validate;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class ArtifactoryScanner
 {
-    private final ExecutorService pool;
     private final ArtifactoryClient client;
 
+    /**
+     * Enumerates the whole repository with paginated AQL queries.
+     */
+    public final IScanStrategy AQL = this::scanRepoAQL;
+
+    /**
+     * Lists the top levels of the repository folder by folder and each subtree below them with a deep file list request.
+     */
+    public final IScanStrategy DEEP_LIST = this::scanRepoDeepList;
+
+    /**
+     * How many levels of folders {@link #DEEP_LIST} lists one by one before it deep-lists the subtrees below them.
+     */
+    private static final int DEEP_LIST_DEPTH = 2;
+
+    /**
+     * How often a scan checks whether the user pressed cancel while waiting for responses.
+     */
+    private static final long INTERRUPT_POLL_MILLIS = 100;
+
+    /**
+     * Recursively lists each folder and queries each file on its own.
+     */
+    public final IScanStrategy FOLDER_WALK = this::scanRepoFolderWalk;
+
+    private volatile IScanStrategy scanStrategy = AQL;
+
+    private volatile long partialResultIntervalMillis;
+
+    private volatile int maxParallelScans = 16;
+
+    private static final ScheduledExecutorService PARTIAL_RESULTS = Executors.newSingleThreadScheduledExecutor( r ->
+    {
+        final Thread t = new Thread( r, "partial-results" );
+        t.setDaemon( true );
+        return t;
+    });
+
     public ArtifactoryScanner(ArtifactoryClient client) throws Exception
     {
         Validate.notNull( client, "client must not be null" );
         this.client = client;
-        final LinkedBlockingQueue<Runnable> workQueue =
-                new LinkedBlockingQueue<>();
+    }
+
+    public interface IProgressReporter
+    {
+        void itemScanned();
 
-        final ThreadFactory tf = new ThreadFactory()
+        /**
+         * Called periodically while a scan is running, see {@link #setPartialResultInterval(long)}.
+         *
+         * @param tree copy of the tree scanned so far. Folders that are still being scanned hold the totals
+         *             found so far, folders that have not been listed yet are missing.
+         */
+        default void partialResult(SizeAndLatestDate tree) {
+        }
+
+        /**
+         * Called once the totals of a folder are final, always after all of its sub-folders.
+         *
+         * May be called from several threads at the same time.
+         */
+        default void folderCompleted(SizeAndLatestDate folder) {
+        }
+    }
+
+    /**
+     * Reports a completed tree to {@link IProgressReporter#folderCompleted(SizeAndLatestDate)}, children first.
+     */
+    private static void reportCompleted(SizeAndLatestDate folder, IProgressReporter progressReporter)
+    {
+        folder.children.forEach( child -> reportCompleted( child, progressReporter ) );
+        progressReporter.folderCompleted( folder );
+    }
+
+    /**
+     * Wraps a progress reporter so that scanned items and completed folders also get counted in the client's metrics.
+     */
+    private IProgressReporter withMetrics(IProgressReporter progressReporter)
+    {
+        final ScanMetrics metrics = client.getMetrics();
+        return new IProgressReporter()
         {
-            private final AtomicInteger ID = new AtomicInteger();
             @Override
-            public Thread newThread(Runnable r)
+            public void itemScanned()
+            {
+                metrics.itemScanned();
+                progressReporter.itemScanned();
+            }
+
+            @Override
+            public void partialResult(SizeAndLatestDate tree)
+            {
+                progressReporter.partialResult( tree );
+            }
+
+            @Override
+            public void folderCompleted(SizeAndLatestDate folder)
             {
-                final Thread t = new Thread(r);
-                t.setDaemon( true );
-                t.setName("thread-"+ID.incrementAndGet());
-                return t;
+                metrics.folderCompleted();
+                progressReporter.folderCompleted( folder );
             }
         };
-        pool = new ThreadPoolExecutor( 1000, 1000, 60, TimeUnit.SECONDS, workQueue, tf, new ThreadPoolExecutor.CallerRunsPolicy() );
     }
 
-    public interface IProgressReporter
+    /**
+     * A way of retrieving the contents of a repository.
+     */
+    @FunctionalInterface
+    public interface IScanStrategy
     {
-        void itemScanned();
+        /**
+         * Scans a repository.
+         *
+         * @throws ArtifactoryClient.HttpStatusException if the server does not support this strategy
+         */
+        SizeAndLatestDate scan(ArtifactoryClient.Repository repo, BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException;
     }
 
-    public SizeAndLatestDate scanRepo(ArtifactoryClient.Repository repo, BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException
+    /**
+     * Builds a tree of folders from a flat list of items whose paths
+     * are relative to the repository root.
+     */
+    private static final class TreeBuilder implements Consumer<ArtifactoryClient.Item>
     {
-        return scanRepo(new SizeAndLatestDate( repo,""), "", 0,interrupt, progressReporter);
+        private final SizeAndLatestDate root;
+        private final Map<String,SizeAndLatestDate> folders = new HashMap<>();
+        private final IProgressReporter progressReporter;
+
+        public TreeBuilder(ArtifactoryClient.Repository repo, IProgressReporter progressReporter)
+        {
+            this.root = new SizeAndLatestDate( repo, "" );
+            root.pending = true;
+            this.progressReporter = progressReporter;
+            folders.put( "", root );
+        }
+
+        @Override
+        public void accept(ArtifactoryClient.Item item)
+        {
+            progressReporter.itemScanned();
+            if ( item.isFolder() ) {
+                getOrCreateFolder( item.path ).lastModified = item.lastUpdated;
+            } else {
+                final String folder = item.path.substring( 0, item.path.lastIndexOf( '/' ) );
+                getOrCreateFolder( folder ).addFile( item.sizeInBytes, item.lastUpdated );
+            }
+        }
+
+        private SizeAndLatestDate getOrCreateFolder(String path)
+        {
+            SizeAndLatestDate result = folders.get( path );
+            if ( result == null )
+            {
+                final int idx = path.lastIndexOf( '/' );
+                final SizeAndLatestDate parent = getOrCreateFolder( path.substring( 0, idx ) );
+                result = new SizeAndLatestDate( parent, path.substring( idx ) );
+                result.pending = true;
+                folders.put( path, result );
+            }
+            return result;
+        }
+
+        public SizeAndLatestDate finish()
+        {
+            root.sumUpChildren();
+            reportCompleted( root, progressReporter );
+            return root;
+        }
     }
 
-    private SizeAndLatestDate scanRepo(SizeAndLatestDate parent,String pathComponent,int depth,BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException
+    /**
+     * Sets how repositories are scanned.
+     *
+     * Defaults to {@link #AQL}. Any strategy other than {@link #FOLDER_WALK} automatically falls back
+     * to walking the folders one by one if the server rejects its requests.
+     *
+     * @param scanStrategy
+     */
+    public void setScanStrategy(IScanStrategy scanStrategy)
     {
-        // get folders
-        final String repoId = parent.getRepoId();
-        final SizeAndLatestDate size = "".equals( pathComponent ) ? parent : new SizeAndLatestDate( parent , pathComponent );
-        final List<ArtifactoryClient.Item> children = client.getChildren( repoId, size.getPath() );
-        progressReporter.itemScanned();
+        Validate.notNull( scanStrategy, "scanStrategy must not be null" );
+        this.scanStrategy = scanStrategy;
+    }
 
-        final AtomicInteger count = new AtomicInteger();
-        final Object LOCK = new Object();
+    /**
+     * Sets how often scans report the tree scanned so far.
+     *
+     * @param millis interval in milliseconds, 0 to only report the final result
+     * @see IProgressReporter#partialResult(SizeAndLatestDate)
+     */
+    public void setPartialResultInterval(long millis)
+    {
+        Validate.isTrue( millis >= 0, "interval must be >= 0" );
+        this.partialResultIntervalMillis = millis;
+    }
 
-        final AtomicBoolean interrupted = new AtomicBoolean(false);
-        for ( var child : children )
+    /**
+     * Periodically reports copies of a tree while it is being scanned.
+     *
+     * Once closed, no more copies are made.
+     */
+    private final class PartialResults implements AutoCloseable
+    {
+        private final SizeAndLatestDate root;
+        private final IProgressReporter progressReporter;
+        private final ScheduledFuture<?> future;
+        private boolean closed;
+
+        public PartialResults(SizeAndLatestDate root, IProgressReporter progressReporter)
         {
-            final String uri = child.path;
-            if ( child.isFolder() )
+            this.root = root;
+            this.progressReporter = progressReporter;
+            final long interval = partialResultIntervalMillis;
+            this.future = interval > 0 ? PARTIAL_RESULTS.scheduleWithFixedDelay( this::publish, interval, interval, TimeUnit.MILLISECONDS ) : null;
+        }
+
+        private synchronized void publish()
+        {
+            if ( ! closed )
             {
-                if ( interrupt.getAsBoolean() )
+                try
                 {
-                    interrupted.set(true);
-                    break;
+                    progressReporter.partialResult( root.copyPartial( null ) );
                 }
-                if ( depth < 5 )
+                catch (RuntimeException e)
                 {
-                    count.incrementAndGet();
-                    final Runnable r = () ->
-                    {
-                        try
-                        {
-                            if ( ! interrupted.get() )
-                            {
-                                if ( ! interrupt.getAsBoolean() )
-                                {
-                                    size.merge( scanRepo( size, uri, depth + 1, interrupt, progressReporter ) );
-                                } else {
-                                    interrupted.set(true);
-                                }
-                            }
-                        }
-                        catch (InterruptedException e)
-                        {
-                            interrupted.set(true);
-                        }
-                        finally
-                        {
-                            if ( count.decrementAndGet() == 0 )
-                            {
-                                synchronized(LOCK) {
-                                    LOCK.notifyAll();
-                                }
-                            }
-                        }
-                    };
-                    pool.submit( r );
+                    // keep reporting, a broken preview must not abort the scan
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            closed = true;
+            if ( future != null ) {
+                future.cancel( false );
+            }
+        }
+    }
+
+    /**
+     * Sets how many repositories {@link #scanRepos(List, BooleanSupplier, Function)} scans at the same time.
+     *
+     * Only bounds the number of threads used, the number of concurrent requests is bounded by the client.
+     */
+    public void setMaxParallelScans(int maxParallelScans)
+    {
+        Validate.isTrue( maxParallelScans >= 1, "maxParallelScans must be >= 1" );
+        this.maxParallelScans = maxParallelScans;
+    }
+
+    /**
+     * Scans several repositories at the same time.
+     *
+     * All scans share the client's concurrency limit. The limiter serves the pending requests of different
+     * repositories in turn, so small repositories finish quickly even while a huge one keeps thousands of
+     * requests queued. Repositories are started in the given order, up to {@link #setMaxParallelScans(int)} at a time.
+     *
+     * @param repos repositories to scan
+     * @param interrupt
+     * @param progressReporters supplies the progress reporter of a repository, called when its scan starts
+     * @return one future per repository (in the given order), each completing as soon as that repository
+     * has been scanned
+     */
+    public List<CompletableFuture<SizeAndLatestDate>> scanRepos(List<ArtifactoryClient.Repository> repos, BooleanSupplier interrupt,
+                                                               Function<ArtifactoryClient.Repository,IProgressReporter> progressReporters)
+    {
+        Validate.notNull( repos, "repos must not be null" );
+        Validate.notNull( progressReporters, "progressReporters must not be null" );
+
+        final AtomicInteger id = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, Math.min( maxParallelScans, repos.size() ) ), r ->
+        {
+            final Thread t = new Thread(r);
+            t.setDaemon( true );
+            t.setName("repo-scanner-"+id.incrementAndGet());
+            return t;
+        });
+        final List<CompletableFuture<SizeAndLatestDate>> result = new ArrayList<>();
+        for ( ArtifactoryClient.Repository repo : repos )
+        {
+            final CompletableFuture<SizeAndLatestDate> future = new CompletableFuture<>();
+            executor.execute( () ->
+            {
+                try
+                {
+                    if ( interrupt.getAsBoolean() ) {
+                        throw new InterruptedException("Interrupted by user");
+                    }
+                    future.complete( scanRepo( repo, interrupt, progressReporters.apply( repo ) ) );
+                }
+                catch (Exception e)
+                {
+                    future.completeExceptionally( e );
+                }
+            });
+            result.add( future );
+        }
+        // threads exit once all scans are done
+        executor.shutdown();
+        return result;
+    }
+
+    public SizeAndLatestDate scanRepo(ArtifactoryClient.Repository repo, BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException
+    {
+        final IProgressReporter reporter = withMetrics( progressReporter );
+        final IScanStrategy strategy = scanStrategy;
+        if ( strategy != FOLDER_WALK )
+        {
+            try
+            {
+                return strategy.scan( repo, interrupt, reporter );
+            }
+            catch (ArtifactoryClient.HttpStatusException e)
+            {
+                System.err.println( "Scan strategy failed, falling back to scanning folders: " + e.getMessage() );
+            }
+        }
+        return FOLDER_WALK.scan( repo, interrupt, reporter );
+    }
+
+    private SizeAndLatestDate scanRepoAQL(ArtifactoryClient.Repository repo, BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException
+    {
+        final TreeBuilder builder = new TreeBuilder( repo, progressReporter );
+        final PartialResults partialResults = new PartialResults( builder.root, progressReporter );
+        try ( partialResults )
+        {
+            client.getAllItems( repo.repoId, interrupt, builder );
+        }
+        return builder.finish();
+    }
+
+    private SizeAndLatestDate scanRepoDeepList(ArtifactoryClient.Repository repo, BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException
+    {
+        final ScanScope scope = new ScanScope( interrupt, progressReporter );
+        final TreeBuilder builder = new TreeBuilder( repo, progressReporter );
+        // listings of different subtrees get parsed at the same time
+        final Consumer<ArtifactoryClient.Item> consumer = item ->
+        {
+            synchronized (builder) {
+                builder.accept( item );
+            }
+        };
+        final PartialResults partialResults = new PartialResults( builder.root, progressReporter );
+        try ( partialResults )
+        {
+            await( scope, deepList( scope, repo.repoId, "", 0, consumer ) );
+        }
+        return builder.finish();
+    }
+
+    /**
+     * Lists a folder's direct children and recurses into its sub-folders, or lists the whole subtree below
+     * the folder at once if it is {@link #DEEP_LIST_DEPTH} levels deep. This keeps single responses from
+     * growing with the size of the whole repository, and subtrees get listed in parallel.
+     */
+    private CompletableFuture<Void> deepList(ScanScope scope, String repoId, String path, int depth, Consumer<ArtifactoryClient.Item> consumer)
+    {
+        if ( scope.isCancelled() ) {
+            return CompletableFuture.failedFuture( new CancellationException("Scan cancelled") );
+        }
+        final CompletableFuture<Void> result;
+        if ( depth >= DEEP_LIST_DEPTH ) {
+            result = client.getFileListAsync( repoId, path, true, scope, consumer ).thenApply( count -> null );
+        }
+        else
+        {
+            // only touched by the thread parsing the listing
+            final List<String> subFolders = new ArrayList<>();
+            result = client.getFileListAsync( repoId, path, false, scope, item ->
+            {
+                consumer.accept( item );
+                if ( item.isFolder() ) {
+                    subFolders.add( item.path );
+                }
+            })
+            .thenCompose( count -> CompletableFuture.allOf( subFolders.stream()
+                .map( subFolder -> deepList( scope, repoId, subFolder, depth + 1, consumer ) )
+                .toArray( CompletableFuture[]::new ) ) );
+        }
+        result.whenComplete( (ignored, t) ->
+        {
+            if ( t != null ) {
+                scope.fail( t instanceof CompletionException ? t.getCause() : t );
+            }
+        });
+        return result;
+    }
+
+    /**
+     * State shared by all tasks of one scan.
+     *
+     * The first failure (or the user pressing cancel) cancels the whole scan: folders that have not
+     * been listed yet complete immediately without sending any requests and the scan's requests still
+     * waiting to be sent get cancelled.
+     */
+    private final class ScanScope implements ArtifactoryClient.IRequestGroup
+    {
+        public final BooleanSupplier interrupt;
+        public final IProgressReporter progressReporter;
+        /**
+         * Folders deeper than this are not scanned but become unexpanded placeholders.
+         */
+        public final int maxDepth;
+        /**
+         * Whether the user is waiting for this scan.
+         */
+        public final boolean urgent;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private final LongAdder fileCount = new LongAdder();
+        private final LongAdder fileBytes = new LongAdder();
+        private final LongAdder folderCount = new LongAdder();
+        private final ConcurrentLinkedQueue<Placeholder> placeholders = new ConcurrentLinkedQueue<>();
+
+        public ScanScope(BooleanSupplier interrupt, IProgressReporter progressReporter)
+        {
+            this( interrupt, progressReporter, Integer.MAX_VALUE, false );
+        }
+
+        public ScanScope(BooleanSupplier interrupt, IProgressReporter progressReporter, int maxDepth, boolean urgent)
+        {
+            this.interrupt = interrupt;
+            this.progressReporter = progressReporter;
+            this.maxDepth = maxDepth;
+            this.urgent = urgent;
+        }
+
+        public void fileScanned(long size)
+        {
+            fileCount.increment();
+            fileBytes.add( size );
+        }
+
+        public void folderScanned()
+        {
+            folderCount.increment();
+        }
+
+        public void addPlaceholder(Placeholder placeholder)
+        {
+            placeholders.add( placeholder );
+        }
+
+        /**
+         * Reports a folder's totals as final, unless placeholders' estimates still get added to them
+         * once the scan has completed.
+         */
+        public void folderCompleted(SizeAndLatestDate folder)
+        {
+            if ( maxDepth == Integer.MAX_VALUE ) {
+                progressReporter.folderCompleted( folder );
+            }
+        }
+
+        /**
+         * Estimates the sizes of all placeholders from the averages of the folders scanned, adding them to the placeholders' ancestors.
+         *
+         * Must only be called once the scan has completed.
+         */
+        public void estimatePlaceholders()
+        {
+            final long files = fileCount.sum();
+            final long folders = folderCount.sum();
+            final double avgFileSize = files == 0 ? 0 : fileBytes.sum() / (double) files;
+            final double avgFilesPerFolder = folders == 0 ? 0 : files / (double) folders;
+            for ( Placeholder placeholder : placeholders )
+            {
+                final long estimate = Math.round( avgFileSize * ( placeholder.files + placeholder.folders * avgFilesPerFolder ) );
+                for ( SizeAndLatestDate node = placeholder.folder ; node != null ; node = node.parent ) {
+                    node.sizeInBytes += estimate;
+                }
+            }
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return failure.get() != null || interrupt.getAsBoolean();
+        }
+
+        /**
+         * @return the failure that cancelled the scan, or <code>null</code>
+         */
+        public Throwable getFailure()
+        {
+            return failure.get();
+        }
+
+        public void fail(Throwable t)
+        {
+            if ( failure.compareAndSet( null, t ) ) {
+                client.cancelRequests( this );
+            }
+        }
+    }
+
+    /**
+     * A folder that was listed but not scanned.
+     */
+    private static final class Placeholder
+    {
+        public final SizeAndLatestDate folder;
+        public final int files;
+        public final int folders;
+
+        public Placeholder(SizeAndLatestDate folder, int files, int folders)
+        {
+            this.folder = folder;
+            this.files = files;
+            this.folders = folders;
+        }
+    }
+
+    /**
+     * Totals of the files in one folder.
+     *
+     * File lookups complete on arbitrary threads, so this accumulates without locking. Only the histogram
+     * locks, and only files of the same folder compete for it. The totals are added to the folder once
+     * by a single thread after all files are done.
+     */
+    static final class FileTotals
+    {
+        private final LongAdder sizeInBytes = new LongAdder();
+        private final AtomicLong latestDate = new AtomicLong( Timestamps.NO_DATE );
+        private final SizeHistogram histogram = new SizeHistogram();
+
+        public void add(long size, long date)
+        {
+            sizeInBytes.add( size );
+            if ( date > latestDate.get() ) {
+                latestDate.accumulateAndGet( date, Math::max );
+            }
+            histogram.add( size, date );
+        }
+
+        public void addTo(SizeAndLatestDate folder)
+        {
+            folder.merge( sizeInBytes.sum(), latestDate.get() );
+            if ( histogram.getEntryCount() > 0 ) {
+                folder.histogram = histogram;
+            }
+        }
+    }
+
+    /**
+     * Scans a repository again, only descending into folders that changed since a previous scan.
+     *
+     * Each folder is listed once. If the server reports the same modification date as recorded in the previous
+     * tree, the folder's previous subtree and totals are reused, otherwise the folder's files are looked up again and
+     * its sub-folders are compared the same way. Totals of changed folders are recomputed bottom-up.
+     * This relies on the server updating a folder's modification date whenever anything below it changes.
+     *
+     * @param repo repository to scan
+     * @param previous root of a previous scan of the same repository
+     * @param interrupt
+     * @param progressReporter
+     * @return new tree
+     */
+    public SizeAndLatestDate rescanRepo(ArtifactoryClient.Repository repo, SizeAndLatestDate previous, BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException
+    {
+        Validate.notNull( previous, "previous must not be null" );
+        final ScanScope scope = new ScanScope( interrupt, withMetrics( progressReporter ) );
+        final SizeAndLatestDate root = new SizeAndLatestDate( repo, "" );
+        root.pending = true;
+        final PartialResults partialResults = new PartialResults( root, progressReporter );
+        try ( partialResults )
+        {
+            return await( scope, rescanFolder( scope, root, previous ) );
+        }
+    }
+
+    private CompletableFuture<SizeAndLatestDate> rescanFolder(ScanScope scope, SizeAndLatestDate folder, SizeAndLatestDate previous)
+    {
+        if ( scope.isCancelled() ) {
+            return CompletableFuture.failedFuture( new CancellationException("Scan cancelled") );
+        }
+
+        final String repoId = folder.getRepoId();
+        final CompletableFuture<SizeAndLatestDate> result = client.getFolderInfoAsync( repoId, folder.getPath(), scope ).thenCompose( info ->
+        {
+            scope.progressReporter.itemScanned();
+            folder.lastModified = info.lastModified;
+            if ( previous != null && info.lastModified != Timestamps.NO_DATE && info.lastModified == previous.lastModified )
+            {
+                // unchanged, reuse previous results
+                previous.children.forEach( child -> child.copy( folder, node -> true ) );
+                folder.sizeInBytes = previous.sizeInBytes;
+                folder.latestDate = previous.latestDate;
+                folder.histogram = previous.histogram == null ? null : previous.histogram.copy();
+                folder.unexpanded = previous.unexpanded;
+                folder.pending = false;
+                reportCompleted( folder, scope.progressReporter );
+                return CompletableFuture.completedFuture( folder );
+            }
+
+            final Map<String,SizeAndLatestDate> previousChildren = new HashMap<>();
+            if ( previous != null ) {
+                previous.children.forEach( child -> previousChildren.put( child.getPathSegment(), child ) );
+            }
+            final FileTotals files = new FileTotals();
+            final List<CompletableFuture<SizeAndLatestDate>> subFolders = new ArrayList<>();
+            final List<CompletableFuture<?>> children = new ArrayList<>();
+            for ( ArtifactoryClient.Item child : info.children )
+            {
+                if ( child.isFolder() )
+                {
+                    final SizeAndLatestDate subFolder = new SizeAndLatestDate( folder, child.path );
+                    subFolder.pending = true;
+                    final CompletableFuture<SizeAndLatestDate> future = rescanFolder( scope, subFolder, previousChildren.get( child.path ) );
+                    subFolders.add( future );
+                    children.add( future );
                 }
                 else
                 {
-                    size.merge( scanRepo( size, uri, depth + 1, interrupt, progressReporter ) );
+                    children.add( client.getFileInfoAsync( repoId, folder.getPath() + child.path, scope ).thenAccept( file ->
+                    {
+                        scope.progressReporter.itemScanned();
+                        files.add( file.sizeInBytes, file.lastUpdated );
+                    }));
                 }
             }
-            else
+            return CompletableFuture.allOf( children.toArray( CompletableFuture[]::new ) ).thenApply( ignored ->
             {
-                // not a folder
-                progressReporter.itemScanned();
-                size.merge( child.sizeInBytes, child.lastUpdated );
+                files.addTo( folder );
+                subFolders.forEach( subFolder -> folder.merge( subFolder.join() ) );
+                folder.pending = false;
+                scope.progressReporter.folderCompleted( folder );
+                return folder;
+            });
+        });
+        result.whenComplete( (ignored, t) ->
+        {
+            if ( t != null ) {
+                scope.fail( t instanceof CompletionException ? t.getCause() : t );
             }
+        });
+        return result;
+    }
+
+    private SizeAndLatestDate scanRepoFolderWalk(ArtifactoryClient.Repository repo, BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException
+    {
+        final ScanScope scope = new ScanScope( interrupt, progressReporter );
+        final SizeAndLatestDate root = new SizeAndLatestDate( repo, "" );
+        root.pending = true;
+        final PartialResults partialResults = new PartialResults( root, progressReporter );
+        try ( partialResults )
+        {
+            return await( scope, scanFolder( scope, root ) );
         }
-        while ( count.get() > 0 )
+    }
+
+    /**
+     * Scans a repository down to a given depth only.
+     *
+     * Walks the folders like {@link #FOLDER_WALK}, but folders deeper than <code>maxDepth</code> only get listed,
+     * without looking up any of their files. They are {@link SizeAndLatestDate#unexpanded unexpanded} leaves of the
+     * tree whose sizes are estimated from the number of files and folders they directly contain and the average file size
+     * and number of files per folder of the folders scanned. Their latest date is the folder's last modification date.
+     * Use {@link #expandFolder(SizeAndLatestDate, BooleanSupplier, IProgressReporter)} to scan them later on.
+     * Since the estimates change the totals of all of their ancestors, completed folders only get reported once they have been added.
+     *
+     * @param repo repository to scan
+     * @param maxDepth how many levels of folders below the repository's root to scan, at least 1
+     * @param interrupt
+     * @param progressReporter
+     * @return tree
+     */
+    public SizeAndLatestDate scanRepoLazily(ArtifactoryClient.Repository repo, int maxDepth, BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException
+    {
+        Validate.isTrue( maxDepth >= 1, "maxDepth must be >= 1" );
+        final ScanScope scope = new ScanScope( interrupt, withMetrics( progressReporter ), maxDepth, false );
+        final SizeAndLatestDate root = new SizeAndLatestDate( repo, "" );
+        root.pending = true;
+        final SizeAndLatestDate result;
+        final PartialResults partialResults = new PartialResults( root, progressReporter );
+        try ( partialResults )
         {
-            synchronized(LOCK)
+            result = await( scope, scanFolder( scope, root ) );
+        }
+        scope.estimatePlaceholders();
+        // only now the totals are final
+        reportCompleted( result, scope.progressReporter );
+        return result;
+    }
+
+    /**
+     * Scans an unexpanded folder completely.
+     *
+     * The requests get sent before those of all other scans, since the user is waiting for them.
+     *
+     * @param folder folder from a tree returned by {@link #scanRepoLazily(ArtifactoryClient.Repository, int, BooleanSupplier, IProgressReporter)}
+     * @param interrupt
+     * @param progressReporter
+     * @return scanned folder, a root node with the folder's full path
+     * @see SizeAndLatestDate#copyExpanding(SizeAndLatestDate)
+     */
+    public SizeAndLatestDate expandFolder(SizeAndLatestDate folder, BooleanSupplier interrupt, IProgressReporter progressReporter) throws InterruptedException
+    {
+        Validate.notNull( folder, "folder must not be null" );
+        Validate.isTrue( folder.unexpanded, "folder must be unexpanded" );
+        final ScanScope scope = new ScanScope( interrupt, withMetrics( progressReporter ), Integer.MAX_VALUE, true );
+        final SizeAndLatestDate root = new SizeAndLatestDate( folder.getRepo(), folder.getPath() );
+        root.pending = true;
+        return await( scope, scanFolder( scope, root ) );
+    }
+
+    /**
+     * Lists a folder that is too deep to be scanned, remembering how many files and folders it contains.
+     */
+    private CompletableFuture<SizeAndLatestDate> listPlaceholder(ScanScope scope, SizeAndLatestDate folder)
+    {
+        if ( scope.isCancelled() ) {
+            return CompletableFuture.failedFuture( new CancellationException("Scan cancelled") );
+        }
+        final CompletableFuture<SizeAndLatestDate> result = client.getFolderInfoAsync( folder.getRepoId(), folder.getPath(), scope ).thenApply( info ->
+        {
+            scope.progressReporter.itemScanned();
+            int folders = 0;
+            for ( ArtifactoryClient.Item child : info.children )
+            {
+                if ( child.isFolder() ) {
+                    folders++;
+                }
+            }
+            scope.addPlaceholder( new Placeholder( folder, info.children.size() - folders, folders ) );
+            folder.lastModified = info.lastModified;
+            folder.latestDate = info.lastModified;
+            folder.pending = false;
+            return folder;
+        });
+        result.whenComplete( (ignored, t) ->
+        {
+            if ( t != null ) {
+                scope.fail( t instanceof CompletionException ? t.getCause() : t );
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for a scan to complete, cancelling it as soon as the user presses cancel.
+     */
+    private static <T> T await(ScanScope scope, CompletableFuture<T> root) throws InterruptedException
+    {
+        try
+        {
+            while ( true )
             {
                 try
                 {
-                    LOCK.wait( 100 );
+                    return root.get( INTERRUPT_POLL_MILLIS, TimeUnit.MILLISECONDS );
+                }
+                catch (TimeoutException e)
+                {
+                    if ( scope.interrupt.getAsBoolean() ) {
+                        scope.fail( new CancellationException("Interrupted by user") );
+                    }
                 }
-                catch (InterruptedException e) { /* nop */ }
             }
         }
-        if ( interrupted.get() ) {
-            throw new InterruptedException("Interrupted by user");
+        catch (ExecutionException e)
+        {
+            // report the failure that cancelled the scan, not one of the cancellations it caused
+            final Throwable cause = scope.getFailure() != null ? scope.getFailure() : e.getCause();
+            if ( scope.interrupt.getAsBoolean() || cause instanceof CancellationException ) {
+                throw new InterruptedException("Interrupted by user");
+            }
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException( cause );
+        }
+        finally
+        {
+            // make sure nothing is left running
+            scope.fail( new CancellationException("Scan finished") );
+        }
+    }
+
+    /**
+     * Scans a folder.
+     *
+     * Forks a task for each sub-folder while the folder's listing is still being received and completes once
+     * all of them have completed. No thread ever blocks, neither waiting for the server nor for a sub-folder, so a
+     * folder that is still in progress costs a future but not a thread. A folder's totals are written by one thread
+     * at a time: the file totals once the listing has been processed, the sub-folder totals once those have completed.
+     * Sub-folders deeper than the scope's max. depth only get listed.
+     */
+    private CompletableFuture<SizeAndLatestDate> scanFolder(ScanScope scope, SizeAndLatestDate folder)
+    {
+        if ( scope.isCancelled() ) {
+            return CompletableFuture.failedFuture( new CancellationException("Scan cancelled") );
         }
-        return size;
+
+        // only touched by the thread parsing the listing
+        final List<CompletableFuture<SizeAndLatestDate>> subFolders = new ArrayList<>();
+        final FileTotals files = new FileTotals();
+        final CompletableFuture<SizeAndLatestDate> result = client.getChildrenAsync( folder.getRepoId(), folder.getPath(), child ->
+        {
+            if ( child.isFolder() )
+            {
+                // fails right away if the scan has been cancelled, so the folder can't complete without it
+                final SizeAndLatestDate subFolder = new SizeAndLatestDate( folder, child.path );
+                subFolder.pending = true;
+                if ( subFolder.getDepth() > scope.maxDepth )
+                {
+                    subFolder.unexpanded = true;
+                    subFolders.add( listPlaceholder( scope, subFolder ) );
+                } else {
+                    subFolders.add( scanFolder( scope, subFolder ) );
+                }
+            }
+            else
+            {
+                scope.progressReporter.itemScanned();
+                scope.fileScanned( child.sizeInBytes );
+                files.add( child.sizeInBytes, child.lastUpdated );
+            }
+        }, scope, scope.urgent )
+        .thenCompose( lastModified ->
+        {
+            scope.progressReporter.itemScanned();
+            scope.folderScanned();
+            folder.lastModified = lastModified;
+            // all files have been looked up, publish their totals while the sub-folders are still being scanned
+            files.addTo( folder );
+            return CompletableFuture.allOf( subFolders.toArray( CompletableFuture[]::new ) );
+        })
+        .thenApply( ignored ->
+        {
+            subFolders.forEach( subFolder -> folder.merge( subFolder.join() ) );
+            folder.pending = false;
+            scope.folderCompleted( folder );
+            return folder;
+        });
+        result.whenComplete( (ignored, t) ->
+        {
+            if ( t != null ) {
+                scope.fail( t instanceof CompletionException ? t.getCause() : t );
+            }
+        });
+        return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,352 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Headless entry point, scans repositories and writes one record per folder.
+ *
+ * <pre>
+ * BatchMain [--url=API URL] [--user=USER] [--password=PASSWORD] [--format=csv|ndjson] [--output=FILE]
+ *           [--strategy=aql|deep|walk] [--max-connections=N] [--parallel=N] [--transport=JDK_ASYNC|COMMONS_HTTPCLIENT]
+ *           [--metrics-interval=SECONDS] [--cache-dir=DIR] [--cache-size=MB] [REPOSITORY...]
+ * </pre>
+ *
+ * Scans all repositories if none are given, up to <code>--parallel</code> (default: 16) at the same time. URL, user and password may also be passed as environment variables
+ * ARTIFACTORY_URL, ARTIFACTORY_USER and ARTIFACTORY_PASSWORD. Records go to standard output unless an output file
+ * is given; each folder is written as soon as its totals are final, children before their parents. Throughput
+ * statistics are printed to standard error as each repository completes and for all of them at the end,
+ * request metrics every <code>--metrics-interval</code> seconds (default: 10, 0 turns them off). Given a
+ * <code>--cache-dir</code>, responses are kept there (up to <code>--cache-size</code> megabytes, default: 256) and
+ * revalidated on the next run, so that unchanged responses don't get transferred again.
+ */
+public class BatchMain
+{
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+    /**
+     * Writes folder records, may be called from several threads at the same time.
+     */
+    private abstract static class ReportWriter implements Closeable
+    {
+        protected final Writer writer;
+
+        protected ReportWriter(Writer writer)
+        {
+            this.writer = writer;
+        }
+
+        public abstract void write(SizeAndLatestDate folder) throws IOException;
+
+        public synchronized void flush() throws IOException
+        {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            writer.close();
+        }
+
+        protected static String path(SizeAndLatestDate folder)
+        {
+            final String path = folder.getPath();
+            return path.isEmpty() ? "/" : path;
+        }
+
+        protected static String format(long date)
+        {
+            return date == Timestamps.NO_DATE ? null : DATE_FORMAT.format( Timestamps.toDate( date ) );
+        }
+    }
+
+    private static final class CsvWriter extends ReportWriter
+    {
+        public CsvWriter(Writer writer) throws IOException
+        {
+            super( writer );
+            writer.write( "repository,path,size_bytes,latest_update,folder_last_modified\n" );
+        }
+
+        @Override
+        public synchronized void write(SizeAndLatestDate folder) throws IOException
+        {
+            writer.write( quote( folder.getRepoId() ) );
+            writer.write( ',' );
+            writer.write( quote( path( folder ) ) );
+            writer.write( ',' );
+            writer.write( Long.toString( folder.sizeInBytes ) );
+            writer.write( ',' );
+            writer.write( StringUtils.defaultString( format( folder.latestDate ) ) );
+            writer.write( ',' );
+            writer.write( StringUtils.defaultString( format( folder.lastModified ) ) );
+            writer.write( '\n' );
+        }
+
+        private static String quote(String s)
+        {
+            if ( StringUtils.containsAny( s, ',', '"', '\n', '\r' ) ) {
+                return '"' + s.replace( "\"", "\"\"" ) + '"';
+            }
+            return s;
+        }
+    }
+
+    private static final class NdJsonWriter extends ReportWriter
+    {
+        private final JsonGenerator generator;
+
+        public NdJsonWriter(Writer writer) throws IOException
+        {
+            super( writer );
+            // one object per line, no separator of Jackson's own
+            this.generator = new JsonFactory().setRootValueSeparator( null ).createGenerator( writer );
+        }
+
+        @Override
+        public synchronized void write(SizeAndLatestDate folder) throws IOException
+        {
+            generator.writeStartObject();
+            generator.writeStringField( "repository", folder.getRepoId() );
+            generator.writeStringField( "path", path( folder ) );
+            generator.writeNumberField( "sizeInBytes", folder.sizeInBytes );
+            generator.writeStringField( "latestUpdate", format( folder.latestDate ) );
+            generator.writeStringField( "folderLastModified", format( folder.lastModified ) );
+            generator.writeEndObject();
+            generator.writeRaw( '\n' );
+        }
+
+        @Override
+        public synchronized void flush() throws IOException
+        {
+            generator.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            generator.close();
+        }
+    }
+
+    /**
+     * Throughput of a single repository scan.
+     */
+    private static final class Stats
+    {
+        public final String repoId;
+        public final AtomicLong items = new AtomicLong();
+        public final AtomicLong folders = new AtomicLong();
+        public volatile long startNanos;
+        public volatile long sizeInBytes;
+        public volatile long elapsedNanos;
+        public volatile String failure;
+
+        public Stats(String repoId)
+        {
+            this.repoId = repoId;
+        }
+
+        public String format(String name)
+        {
+            final double seconds = Math.max( elapsedNanos, 1 ) / 1_000_000_000d;
+            return String.format( "%-30s %10d items %9d folders %12s %9.1f s %10.1f items/s%s", name, items.get(), folders.get(),
+                DataVolume.toPrettyString( sizeInBytes ), seconds, items.get() / seconds, failure == null ? "" : "  FAILED: " + failure );
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final Map<String,String> options = new HashMap<>();
+        final List<String> repoIds = new ArrayList<>();
+        for ( String arg : args )
+        {
+            if ( arg.startsWith( "--" ) )
+            {
+                final int idx = arg.indexOf( '=' );
+                if ( idx == -1 ) {
+                    usage( "Option needs a value: " + arg );
+                }
+                options.put( arg.substring( 2, idx ), arg.substring( idx + 1 ) );
+            } else {
+                repoIds.add( arg );
+            }
+        }
+
+        final String url = option( options, "url", "ARTIFACTORY_URL" );
+        final String user = option( options, "user", "ARTIFACTORY_USER" );
+        final String password = option( options, "password", "ARTIFACTORY_PASSWORD" );
+        if ( StringUtils.isAnyBlank( url, user, password ) ) {
+            usage( "API URL, user and password are required" );
+        }
+
+        final ArtifactoryClient client = new ArtifactoryClient();
+        client.setApiUrl( url );
+        client.setCredentials( user, password );
+        client.setMaxHostConnections( Integer.parseInt( options.getOrDefault( "max-connections", "64" ) ) );
+        if ( options.containsKey( "transport" ) ) {
+            client.setTransport( ArtifactoryClient.Transport.valueOf( options.get( "transport" ) ) );
+        }
+        if ( options.containsKey( "cache-dir" ) )
+        {
+            final long cacheSizeMegabytes = Long.parseLong( options.getOrDefault( "cache-size", "256" ) );
+            client.setResponseCache( new ResponseCache( Paths.get( options.get( "cache-dir" ) ), cacheSizeMegabytes * 1024 * 1024 ) );
+        }
+
+        final ArtifactoryScanner scanner = new ArtifactoryScanner( client );
+        switch( options.getOrDefault( "strategy", "aql" ) )
+        {
+            case "aql":  scanner.setScanStrategy( scanner.AQL ); break;
+            case "deep": scanner.setScanStrategy( scanner.DEEP_LIST ); break;
+            case "walk": scanner.setScanStrategy( scanner.FOLDER_WALK ); break;
+            default:
+                usage( "Unknown scan strategy: " + options.get( "strategy" ) );
+        }
+
+        final List<ArtifactoryClient.Repository> allRepos = client.getRepositories();
+        final List<ArtifactoryClient.Repository> repos;
+        if ( repoIds.isEmpty() ) {
+            repos = allRepos;
+        }
+        else
+        {
+            final Map<String,ArtifactoryClient.Repository> byId = allRepos.stream().collect( Collectors.toMap( r -> r.repoId, r -> r ) );
+            repos = new ArrayList<>();
+            for ( String repoId : repoIds )
+            {
+                if ( ! byId.containsKey( repoId ) ) {
+                    usage( "Unknown repository: " + repoId );
+                }
+                repos.add( byId.get( repoId ) );
+            }
+        }
+
+        final String output = options.get( "output" );
+        final Writer out = new BufferedWriter( output == null ?
+            new OutputStreamWriter( System.out, StandardCharsets.UTF_8 ) :
+            Files.newBufferedWriter( Paths.get( output ), StandardCharsets.UTF_8 ), 64*1024 );
+
+        scanner.setMaxParallelScans( Integer.parseInt( options.getOrDefault( "parallel", "16" ) ) );
+        client.getMetrics().registerMBeans();
+        client.getMetrics().startLogging( Integer.parseInt( options.getOrDefault( "metrics-interval", "10" ) ) );
+
+        final Map<ArtifactoryClient.Repository,Stats> stats = new LinkedHashMap<>();
+        repos.forEach( repo -> stats.put( repo, new Stats( repo.repoId ) ) );
+        final long start = System.nanoTime();
+        try ( ReportWriter writer = "ndjson".equals( options.getOrDefault( "format", "csv" ) ) ? new NdJsonWriter( out ) : new CsvWriter( out ) )
+        {
+            final List<CompletableFuture<SizeAndLatestDate>> results = scanner.scanRepos( repos, () -> false,
+                repo -> createReporter( repo, stats.get( repo ), writer ) );
+            final List<CompletableFuture<SizeAndLatestDate>> reported = new ArrayList<>();
+            for ( int i = 0 ; i < repos.size() ; i++ )
+            {
+                final Stats repoStats = stats.get( repos.get( i ) );
+                reported.add( results.get( i ).whenComplete( (root, t) ->
+                {
+                    repoStats.elapsedNanos = System.nanoTime() - repoStats.startNanos;
+                    if ( t != null )
+                    {
+                        repoStats.failure = t.getMessage();
+                        System.err.println( repoStats.format( repoStats.repoId ) );
+                    }
+                    else
+                    {
+                        repoStats.sizeInBytes = root.sizeInBytes;
+                        System.err.println( repoStats.format( repoStats.repoId ) );
+                        try
+                        {
+                            writer.flush();
+                        }
+                        catch (IOException e)
+                        {
+                            throw new RuntimeException( e );
+                        }
+                    }
+                }));
+            }
+            // failures have been recorded above
+            CompletableFuture.allOf( reported.toArray( CompletableFuture[]::new ) ).exceptionally( t -> null ).join();
+        }
+        finally
+        {
+            client.disconnect();
+        }
+
+        final Stats total = new Stats( "TOTAL" );
+        total.elapsedNanos = System.nanoTime() - start;
+        for ( Stats s : stats.values() )
+        {
+            total.items.addAndGet( s.items.get() );
+            total.folders.addAndGet( s.folders.get() );
+            total.sizeInBytes += s.sizeInBytes;
+        }
+        System.err.println( total.format( "TOTAL" ) );
+        System.err.println( "Latency (p95): " + client.getConcurrencyLimiter().getLatencyMillis() + " ms" );
+        System.err.println( client.getMetrics().format() );
+        System.exit( stats.values().stream().anyMatch( s -> s.failure != null ) ? 1 : 0 );
+    }
+
+    private static ArtifactoryScanner.IProgressReporter createReporter(ArtifactoryClient.Repository repo, Stats stats, ReportWriter writer)
+    {
+        System.err.println( "Scanning " + repo.repoId + " ..." );
+        stats.startNanos = System.nanoTime();
+        return new ArtifactoryScanner.IProgressReporter()
+        {
+            @Override
+            public void itemScanned()
+            {
+                stats.items.incrementAndGet();
+            }
+
+            @Override
+            public void folderCompleted(SizeAndLatestDate folder)
+            {
+                stats.folders.incrementAndGet();
+                try
+                {
+                    writer.write( folder );
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+        };
+    }
+
+    private static String option(Map<String,String> options, String name, String environmentVariable)
+    {
+        final String value = options.get( name );
+        return value != null ? value : System.getenv( environmentVariable );
+    }
+
+    private static void usage(String message)
+    {
+        System.err.println( message );
+        System.err.println();
+        System.err.println( "Usage: BatchMain [--url=API URL] [--user=USER] [--password=PASSWORD] [--format=csv|ndjson] [--output=FILE]" );
+        System.err.println( "                 [--strategy=aql|deep|walk] [--max-connections=N] [--parallel=N] [--transport=JDK_ASYNC|COMMONS_HTTPCLIENT]" );
+        System.err.println( "                 [--metrics-interval=SECONDS] [--cache-dir=DIR] [--cache-size=MB] [REPOSITORY...]" );
+        System.err.println();
+        System.err.println( "URL, user and password may also be given as environment variables ARTIFACTORY_URL, ARTIFACTORY_USER and ARTIFACTORY_PASSWORD." );
+        System.exit( 2 );
+    }
+}
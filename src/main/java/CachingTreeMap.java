@@ -0,0 +1,364 @@
+import de.engehausen.treemap.IColorProvider;
+import de.engehausen.treemap.ILabelProvider;
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.IRectangleRenderer;
+import de.engehausen.treemap.IWeightedTreeModel;
+
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Tree map that builds its model, lays it out and renders it on a background thread.
+ *
+ * Each change of the model or of the component's size starts a new job on the layout thread that creates
+ * the model (if given as a supplier), computes a {@link TreeMapLayout} and renders it into an offscreen image.
+ * Layout and image are swapped in together on the EDT once the job is done. Jobs that became stale
+ * get cancelled: when the component is resized again, or when another model replaces them.
+ *
+ * Painting only copies the dirty region from the image. The rectangle under the mouse pointer is
+ * highlighted on top of the image, so moving the mouse only repaints the rectangles entered and left.
+ * While the component is being resized the old image gets scaled to the new size, until a job for the new size
+ * has finished. All methods must be called on the EDT.
+ */
+public class CachingTreeMap<N> extends JPanel
+{
+    /**
+     * How long the size needs to stay the same before a layout for the new size is computed.
+     */
+    private static final int RESIZE_DELAY_MILLIS = 250;
+
+    /**
+     * How many rectangles to render between checks for cancellation.
+     */
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    private static final Color HIGHLIGHT_FILL = new Color( 255, 255, 255, 64 );
+    private static final Color HIGHLIGHT_BORDER = Color.WHITE;
+
+    private static final Color[] COLORS = {
+        new Color( 0x4e79a7 ), new Color( 0xf28e2b ), new Color( 0xe15759 ), new Color( 0x76b7b2 ),
+        new Color( 0x59a14f ), new Color( 0xedc948 ), new Color( 0xb07aa1 ), new Color( 0xff9da7 )
+    };
+
+    /**
+     * Model whose creation may be deferred to the layout thread, where it is created at most once.
+     */
+    private static final class ModelSource<N>
+    {
+        private Supplier<? extends IWeightedTreeModel<N>> supplier;
+        private IWeightedTreeModel<N> model;
+
+        public ModelSource(Supplier<? extends IWeightedTreeModel<N>> supplier)
+        {
+            this.supplier = supplier;
+        }
+
+        public synchronized IWeightedTreeModel<N> get()
+        {
+            if ( supplier != null )
+            {
+                model = supplier.get();
+                supplier = null;
+            }
+            return model;
+        }
+    }
+
+    /**
+     * Builds a layout and renders it.
+     */
+    private static final class Job<N>
+    {
+        public final ModelSource<N> model;
+        public final int width;
+        public final int height;
+        public final IRectangleRenderer<N,Graphics2D,Color> renderer;
+        public final IColorProvider<N,Color> colorProvider;
+        public final ILabelProvider<N> labelProvider;
+        public final GraphicsConfiguration graphicsConfiguration;
+        public volatile boolean cancelled;
+
+        public Job(ModelSource<N> model, int width, int height, IRectangleRenderer<N,Graphics2D,Color> renderer,
+                   IColorProvider<N,Color> colorProvider, ILabelProvider<N> labelProvider, GraphicsConfiguration graphicsConfiguration)
+        {
+            this.model = model;
+            this.width = width;
+            this.height = height;
+            this.renderer = renderer;
+            this.colorProvider = colorProvider;
+            this.labelProvider = labelProvider;
+            this.graphicsConfiguration = graphicsConfiguration;
+        }
+    }
+
+    private final ExecutorService layoutExecutor = Executors.newSingleThreadExecutor( r ->
+    {
+        final Thread t = new Thread( r, "treemap-layout" );
+        t.setDaemon( true );
+        return t;
+    });
+    /**
+     * Job to run next, jobs replaced before they started never run.
+     */
+    private final AtomicReference<Job<N>> nextJob = new AtomicReference<>();
+    private final Timer resizeTimer;
+
+    private ModelSource<N> model;
+    private IRectangleRenderer<N,Graphics2D,Color> renderer;
+    private IColorProvider<N,Color> colorProvider = (layout, rectangle) -> COLORS[ Math.floorMod( rectangle.getNode().hashCode(), COLORS.length ) ];
+    private ILabelProvider<N> labelProvider = (layout, rectangle) -> String.valueOf( rectangle.getNode() );
+
+    /**
+     * Latest job started, <code>null</code> once it has finished.
+     */
+    private Job<N> runningJob;
+    private TreeMapLayout<N> layout;
+    private BufferedImage image;
+    private IRectangle<N> highlighted;
+
+    public CachingTreeMap()
+    {
+        resizeTimer = new Timer( RESIZE_DELAY_MILLIS, ev -> relayout( true ) );
+        resizeTimer.setRepeats( false );
+        addComponentListener( new ComponentAdapter()
+        {
+            @Override
+            public void componentResized(ComponentEvent e)
+            {
+                // the running layout is for the wrong size now
+                cancelRunningJob();
+                resizeTimer.restart();
+            }
+        });
+
+        final MouseAdapter listener = new MouseAdapter()
+        {
+            @Override
+            public void mouseMoved(MouseEvent e)
+            {
+                setHighlighted( findRectangle( e.getX(), e.getY() ) );
+            }
+
+            @Override
+            public void mouseExited(MouseEvent e)
+            {
+                setHighlighted( null );
+            }
+        };
+        addMouseMotionListener( listener );
+        addMouseListener( listener );
+    }
+
+    public void setTreeModel(IWeightedTreeModel<N> model)
+    {
+        setTreeModel( () -> model, true );
+    }
+
+    /**
+     * Shows another model, creating it on the layout thread.
+     *
+     * @param model creates the model, not invoked on the EDT
+     * @param cancelRunning whether to cancel a layout that's being computed. If <code>false</code>, the running layout
+     *                      gets shown before this one, which keeps frequent updates from starving each other.
+     */
+    public void setTreeModel(Supplier<? extends IWeightedTreeModel<N>> model, boolean cancelRunning)
+    {
+        this.model = new ModelSource<>( model );
+        relayout( cancelRunning );
+    }
+
+    public void setRectangleRenderer(IRectangleRenderer<N,Graphics2D,Color> renderer)
+    {
+        this.renderer = renderer;
+        relayout( true );
+    }
+
+    public void setLabelProvider(ILabelProvider<N> provider)
+    {
+        this.labelProvider = provider;
+        relayout( true );
+    }
+
+    public void setColorProvider(IColorProvider<N,Color> provider)
+    {
+        this.colorProvider = provider;
+        relayout( true );
+    }
+
+    /**
+     * Returns the innermost rectangle at a position of the layout currently shown.
+     *
+     * @return rectangle or <code>null</code>
+     */
+    public IRectangle<N> findRectangle(int x, int y)
+    {
+        final TreeMapLayout<N> current = layout;
+        return current == null ? null : current.findRectangle( x, y );
+    }
+
+    /**
+     * @return rectangle under the mouse pointer, <code>null</code> if there is none
+     */
+    public IRectangle<N> getHighlighted()
+    {
+        return highlighted;
+    }
+
+    private void cancelRunningJob()
+    {
+        if ( runningJob != null ) {
+            runningJob.cancelled = true;
+        }
+    }
+
+    private void relayout(boolean cancelRunning)
+    {
+        if ( cancelRunning ) {
+            cancelRunningJob();
+        }
+        if ( model == null || renderer == null || getWidth() <= 0 || getHeight() <= 0 ) {
+            return;
+        }
+        final Job<N> job = new Job<>( model, getWidth(), getHeight(), renderer, colorProvider, labelProvider, getGraphicsConfiguration() );
+        runningJob = job;
+        final Job<N> replaced = nextJob.getAndSet( job );
+        if ( replaced != null ) {
+            replaced.cancelled = true;
+        }
+        layoutExecutor.execute( this::runNextJob );
+    }
+
+    /**
+     * Runs on the layout thread.
+     */
+    private void runNextJob()
+    {
+        final Job<N> job = nextJob.getAndSet( null );
+        if ( job == null || job.cancelled ) {
+            return;
+        }
+        final TreeMapLayout<N> newLayout;
+        final BufferedImage newImage;
+        try
+        {
+            final IWeightedTreeModel<N> treeModel = job.model.get();
+            if ( job.cancelled ) {
+                return;
+            }
+            newLayout = TreeMapLayout.compute( treeModel, job.width, job.height, () -> job.cancelled );
+            newImage = render( job, newLayout );
+        }
+        catch (CancellationException e)
+        {
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+        SwingUtilities.invokeLater( () ->
+        {
+            if ( job.cancelled ) {
+                return;
+            }
+            if ( runningJob == job ) {
+                runningJob = null;
+            }
+            layout = newLayout;
+            image = newImage;
+            highlighted = null;
+            repaint();
+        });
+    }
+
+    private static <N> BufferedImage render(Job<N> job, TreeMapLayout<N> layout)
+    {
+        final BufferedImage result = job.graphicsConfiguration != null ?
+            job.graphicsConfiguration.createCompatibleImage( job.width, job.height ) :
+            new BufferedImage( job.width, job.height, BufferedImage.TYPE_INT_RGB );
+        final Graphics2D g = result.createGraphics();
+        try
+        {
+            final List<IRectangle<N>> rectangles = layout.getRectangles();
+            for ( int i = 0 ; i < rectangles.size() ; i++ )
+            {
+                if ( ( i % CANCEL_CHECK_INTERVAL ) == 0 && job.cancelled ) {
+                    throw new CancellationException();
+                }
+                job.renderer.render( g, layout, rectangles.get( i ), job.colorProvider, job.labelProvider );
+            }
+        }
+        finally
+        {
+            g.dispose();
+        }
+        return result;
+    }
+
+    private void setHighlighted(IRectangle<N> rectangle)
+    {
+        if ( rectangle == highlighted ) {
+            return;
+        }
+        repaint( highlighted );
+        highlighted = rectangle;
+        repaint( highlighted );
+    }
+
+    private void repaint(IRectangle<N> rectangle)
+    {
+        if ( rectangle != null ) {
+            // + 1 for the border
+            repaint( rectangle.getX(), rectangle.getY(), rectangle.getWidth() + 1, rectangle.getHeight() + 1 );
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        if ( image == null )
+        {
+            super.paintComponent( g );
+            return;
+        }
+        if ( image.getWidth() != getWidth() || image.getHeight() != getHeight() )
+        {
+            // a layout for the new size is on its way
+            ( (Graphics2D) g ).setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+            g.drawImage( image, 0, 0, getWidth(), getHeight(), null );
+            return;
+        }
+        g.drawImage( image, 0, 0, null );
+        paintHighlight( g );
+    }
+
+    private void paintHighlight(Graphics g)
+    {
+        final IRectangle<N> rectangle = highlighted;
+        if ( rectangle != null )
+        {
+            g.setColor( HIGHLIGHT_FILL );
+            g.fillRect( rectangle.getX(), rectangle.getY(), rectangle.getWidth(), rectangle.getHeight() );
+            g.setColor( HIGHLIGHT_BORDER );
+            g.drawRect( rectangle.getX(), rectangle.getY(), rectangle.getWidth(), rectangle.getHeight() );
+        }
+    }
+}
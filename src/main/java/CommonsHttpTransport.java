@@ -0,0 +1,144 @@
+import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport based on commons-httpclient 3.x.
+ *
+ * Requests are blocking, so every request in flight occupies one thread of this transport's pool.
+ */
+final class CommonsHttpTransport implements ITransport
+{
+    private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Max. time without receiving any data, so that a hung request fails (and gets retried) instead of
+     * holding up its scan forever.
+     */
+    private static final int SOCKET_TIMEOUT_MILLIS = 5 * 60_000;
+
+    private final String apiUrl;
+    private final HttpClient client;
+    private final MultiThreadedHttpConnectionManager conManager;
+    private final ExecutorService executor;
+
+    public CommonsHttpTransport(String apiUrl, String user, String password, int maxHostConnections) throws URIException
+    {
+        this.apiUrl = apiUrl;
+
+        // host configuration
+        final HostConfiguration hostConfiguration = new HostConfiguration();
+        final URI uri = new URI( apiUrl, true );
+        hostConfiguration.setHost( uri );
+
+        // connection manager params
+        final HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        params.setMaxConnectionsPerHost( hostConfiguration, maxHostConnections );
+        // the default of 20 connections in total would silently cap the per-host limit
+        params.setMaxTotalConnections( maxHostConnections );
+        params.setConnectionTimeout( CONNECT_TIMEOUT_MILLIS );
+        params.setSoTimeout( SOCKET_TIMEOUT_MILLIS );
+
+        // connection manager
+        conManager = new MultiThreadedHttpConnectionManager();
+        conManager.setParams( params );
+
+        // http client
+        client = new HttpClient(conManager);
+        client.setHostConfiguration( hostConfiguration );
+
+        client.getParams().setAuthenticationPreemptive( true );
+        final Credentials credentials = new UsernamePasswordCredentials(user, password);
+        int port = uri.getPort();
+        if ( port == -1 ) {
+            port = "https".equalsIgnoreCase( uri.getScheme() ) ? 443 : 80;
+        }
+        client.getState().setCredentials(new AuthScope( uri.getHost(), port, AuthScope.ANY_REALM), credentials);
+
+        final AtomicInteger id = new AtomicInteger();
+        executor = Executors.newFixedThreadPool( maxHostConnections, r ->
+        {
+            final Thread t = new Thread(r);
+            t.setDaemon( true );
+            t.setName("http-"+id.incrementAndGet());
+            return t;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Response> send(Request request)
+    {
+        return CompletableFuture.supplyAsync( () ->
+        {
+            final HttpMethod httpMethod = createMethod( request );
+            try
+            {
+                client.executeMethod( httpMethod );
+                return new Response( httpMethod.getStatusCode(), httpMethod.getStatusText(), httpMethod.getResponseBodyAsStream(),
+                    name ->
+                    {
+                        final Header header = httpMethod.getResponseHeader( name );
+                        return header == null ? null : header.getValue();
+                    },
+                    httpMethod::releaseConnection );
+            }
+            catch (IOException e)
+            {
+                httpMethod.releaseConnection();
+                throw new RuntimeException(e);
+            }
+        }, executor );
+    }
+
+    private HttpMethod createMethod(Request request)
+    {
+        final HttpMethod httpMethod;
+        if ( "POST".equals( request.method ) )
+        {
+            final PostMethod postMethod = new PostMethod( apiUrl + request.path );
+            try
+            {
+                postMethod.setRequestEntity( new StringRequestEntity( request.body, request.contentType, "UTF-8" ) );
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            httpMethod = postMethod;
+        } else {
+            httpMethod = new GetMethod( apiUrl + request.path );
+        }
+        request.headers.forEach( httpMethod::setRequestHeader );
+        return httpMethod;
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            executor.shutdownNow();
+        }
+        finally
+        {
+            conManager.shutdown();
+        }
+    }
+}
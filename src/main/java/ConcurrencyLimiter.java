@@ -0,0 +1,339 @@
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent requests to the server.
+ *
+ * The limit adapts itself using additive increase / multiplicative decrease: it grows by one for every
+ * window of requests whose 95th percentile latency stays close to the lowest one seen so far and is cut
+ * whenever latency rises or the server reports being overloaded (HTTP 429/503).
+ *
+ * Waiting requests are queued by key (e.g. the repository they belong to) and permits are handed out to the
+ * queues in turn, so a key with thousands of pending requests can't starve the others. Urgent requests
+ * (e.g. the ones the user is waiting for) get their permits before all others. All requests waiting with a key
+ * can be cancelled at once, e.g. when the scan they belong to has failed.
+ */
+public final class ConcurrencyLimiter
+{
+    private static final int WINDOW_SIZE = 100;
+    /**
+     * Latency percentile the limit follows. Ignores the five slowest responses of each window,
+     * so that a single slow response doesn't cut the limit.
+     */
+    private static final double LATENCY_PERCENTILE = 0.95;
+    private static final double BACKOFF_FACTOR = 0.7;
+
+    /**
+     * How much the p95 latency of a window may exceed the baseline before the limit gets reduced.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final int INITIAL_LIMIT = 4;
+
+    private final long[] window = new long[WINDOW_SIZE];
+    /**
+     * Key of requests that don't belong to any key in particular.
+     */
+    private static final Object DEFAULT_KEY = new Object();
+
+    /**
+     * A request waiting for a permit.
+     */
+    private static final class Waiter extends CompletableFuture<Void>
+    {
+        public final Object key;
+
+        public Waiter(Object key)
+        {
+            this.key = key;
+        }
+    }
+
+    private final Map<Object,Deque<Waiter>> waiters = new HashMap<>();
+    /**
+     * Keys with waiting requests, in the order they get their next permit.
+     */
+    private final Deque<Object> turns = new ArrayDeque<>();
+    private final Deque<Waiter> urgentWaiters = new ArrayDeque<>();
+    private int windowCount;
+
+    private int maxLimit;
+    private double limit;
+    private int inFlight;
+    private long pausedUntil;
+    private boolean wakeUpScheduled;
+    private long baselineLatency = -1;
+
+    private volatile long lastLatency;
+
+    public ConcurrencyLimiter(int maxLimit)
+    {
+        setMaxLimit( maxLimit );
+        this.limit = Math.min( INITIAL_LIMIT, maxLimit );
+    }
+
+    public void setMaxLimit(int maxLimit)
+    {
+        Validate.isTrue( maxLimit >= 1, "Max. limit needs to be >= 1" );
+        synchronized (this)
+        {
+            this.maxLimit = maxLimit;
+            this.limit = Math.min( limit, maxLimit );
+        }
+        grantPermits();
+    }
+
+    /**
+     * Returns a future that completes as soon as another request may be sent.
+     *
+     * Every permit granted this way must be returned by exactly one call to either {@link #release(long)} or {@link #overloaded(long)}.
+     * Continuations attached to the future may run on the thread that released a permit, so they must not block.
+     *
+     * @param key requests with different keys are served in turn, may be <code>null</code>
+     * @return future
+     */
+    public CompletableFuture<Void> acquireAsync(Object key)
+    {
+        return acquireAsync( key, false );
+    }
+
+    /**
+     * Returns a future that completes as soon as another request may be sent.
+     *
+     * @param key requests with different keys are served in turn, may be <code>null</code>
+     * @param urgent whether to hand out the permit before those of all non-urgent requests, ignoring their keys
+     * @return future, fails with a {@link CancellationException} if the request gets cancelled by {@link #cancel(Object)}
+     * @see #acquireAsync(Object)
+     */
+    public CompletableFuture<Void> acquireAsync(Object key, boolean urgent)
+    {
+        final Object queueKey = key == null ? DEFAULT_KEY : key;
+        final Waiter waiter = new Waiter( queueKey );
+        synchronized (this)
+        {
+            if ( turns.isEmpty() && urgentWaiters.isEmpty() && System.currentTimeMillis() >= pausedUntil && inFlight < getLimit() )
+            {
+                inFlight++;
+                return CompletableFuture.completedFuture( null );
+            }
+            if ( urgent ) {
+                urgentWaiters.addLast( waiter );
+            }
+            else
+            {
+                waiters.computeIfAbsent( queueKey, x ->
+                {
+                    turns.addLast( x );
+                    return new ArrayDeque<>();
+                }).addLast( waiter );
+            }
+        }
+        // schedules a wake-up if we're paused
+        grantPermits();
+        return waiter;
+    }
+
+    /**
+     * Cancels all requests waiting for a permit with the given key.
+     *
+     * Their futures fail with a {@link CancellationException}, requests that already got their permit are not affected.
+     *
+     * @param key key passed to {@link #acquireAsync(Object, boolean)}
+     */
+    public void cancel(Object key)
+    {
+        Validate.notNull( key, "key must not be null" );
+        final List<Waiter> cancelled = new ArrayList<>();
+        synchronized (this)
+        {
+            final Deque<Waiter> queue = waiters.remove( key );
+            if ( queue != null )
+            {
+                turns.remove( key );
+                cancelled.addAll( queue );
+            }
+            for ( Iterator<Waiter> it = urgentWaiters.iterator() ; it.hasNext() ; )
+            {
+                final Waiter waiter = it.next();
+                if ( waiter.key.equals( key ) )
+                {
+                    it.remove();
+                    cancelled.add( waiter );
+                }
+            }
+        }
+        for ( Waiter waiter : cancelled ) {
+            waiter.completeExceptionally( new CancellationException("Request cancelled") );
+        }
+    }
+
+    /**
+     * Hands out permits to waiting requests.
+     *
+     * Futures are completed outside of the monitor so that continuations never run while holding it.
+     */
+    private void grantPermits()
+    {
+        final List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (this)
+        {
+            final long now = System.currentTimeMillis();
+            if ( now < pausedUntil )
+            {
+                if ( ( ! turns.isEmpty() || ! urgentWaiters.isEmpty() ) && ! wakeUpScheduled )
+                {
+                    wakeUpScheduled = true;
+                    CompletableFuture.delayedExecutor( pausedUntil - now, TimeUnit.MILLISECONDS ).execute( () ->
+                    {
+                        synchronized (this) {
+                            wakeUpScheduled = false;
+                        }
+                        grantPermits();
+                    });
+                }
+                return;
+            }
+            while ( ! urgentWaiters.isEmpty() && inFlight < getLimit() )
+            {
+                final Waiter waiter = urgentWaiters.removeFirst();
+                if ( ! waiter.isCancelled() )
+                {
+                    inFlight++;
+                    granted.add( waiter );
+                }
+            }
+            while ( ! turns.isEmpty() && inFlight < getLimit() )
+            {
+                final Object key = turns.removeFirst();
+                final Deque<Waiter> queue = waiters.get( key );
+                final Waiter waiter = queue.removeFirst();
+                if ( queue.isEmpty() ) {
+                    waiters.remove( key );
+                } else {
+                    turns.addLast( key );
+                }
+                if ( ! waiter.isCancelled() )
+                {
+                    inFlight++;
+                    granted.add( waiter );
+                }
+            }
+        }
+        for ( CompletableFuture<Void> waiter : granted )
+        {
+            if ( ! waiter.complete( null ) ) {
+                // cancelled while we were handing out the permit
+                release( -1 );
+            }
+        }
+    }
+
+    /**
+     * Releases a permit.
+     *
+     * @param latencyNanos time the server took to respond or a negative value if the request failed without a response
+     */
+    public void release(long latencyNanos)
+    {
+        synchronized (this)
+        {
+            inFlight--;
+            if ( latencyNanos >= 0 )
+            {
+                window[ windowCount++ ] = latencyNanos;
+                if ( windowCount == WINDOW_SIZE )
+                {
+                    windowCount = 0;
+                    adjustLimit();
+                }
+            }
+        }
+        grantPermits();
+    }
+
+    /**
+     * Releases a permit after the server reported being overloaded.
+     *
+     * @param retryAfterMillis time the server asked us to wait before sending further requests
+     */
+    public void overloaded(long retryAfterMillis)
+    {
+        synchronized (this)
+        {
+            inFlight--;
+            limit = Math.max( 1, limit * BACKOFF_FACTOR );
+            pausedUntil = Math.max( pausedUntil, System.currentTimeMillis() + retryAfterMillis );
+        }
+        grantPermits();
+    }
+
+    private void adjustLimit()
+    {
+        final long[] sorted = window.clone();
+        Arrays.sort( sorted );
+        final long p95 = sorted[ (int) ( LATENCY_PERCENTILE * ( sorted.length - 1 ) ) ];
+        lastLatency = p95;
+
+        if ( baselineLatency < 0 || p95 < baselineLatency ) {
+            baselineLatency = p95;
+        }
+        if ( p95 > baselineLatency * LATENCY_TOLERANCE )
+        {
+            limit = Math.max( 1, limit * BACKOFF_FACTOR );
+            // let the baseline follow lasting changes in server response times
+            baselineLatency += ( p95 - baselineLatency ) / 10;
+        }
+        else if ( inFlight + 1 >= getLimit() )
+        {
+            // only grow the limit while we're actually using it
+            limit = Math.min( maxLimit, limit + 1 );
+        }
+    }
+
+    /**
+     * @return current max. number of concurrent requests
+     */
+    public synchronized int getLimit()
+    {
+        return (int) limit;
+    }
+
+    /**
+     * @return number of permits currently handed out
+     */
+    public synchronized int getInFlight()
+    {
+        return inFlight;
+    }
+
+    /**
+     * @return number of requests waiting for a permit
+     */
+    public synchronized int getQueueLength()
+    {
+        int result = urgentWaiters.size();
+        for ( Deque<Waiter> queue : waiters.values() ) {
+            result += queue.size();
+        }
+        return result;
+    }
+
+    /**
+     * @return p95 latency of the most recent window of requests, in milliseconds
+     */
+    public long getLatencyMillis()
+    {
+        return lastLatency / 1_000_000;
+    }
+}
@@ -1,16 +1,32 @@
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
+/**
+ * An amount of data.
+ *
+ * Volumes that are a whole number of bytes fitting into a <code>long</code> (i.e. everything created by {@link #bytes(long)})
+ * are compared and formatted using <code>long</code> arithmetic only, <code>BigDecimal</code>s are created on demand.
+ */
 public final class DataVolume implements Comparable<DataVolume> , Serializable {
 
 	public static final DataVolume ZERO = DataVolume.bytes( 0 );
 	
-	private final BigDecimal value;
+	/**
+	 * One formatter per thread, reused by every call to {@link #toPrettyString()}.
+	 */
+	private static final ThreadLocal<PrettyFormatter> FORMATTER = ThreadLocal.withInitial( PrettyFormatter::new );
+
+	/**
+	 * Size in bytes or -1 if it is not a whole number or too large for a <code>long</code>.
+	 */
+	private final long bytes;
+	private volatile BigDecimal value;
 	private volatile BigDecimal sizeInBytes;
 	private final Unit unit;
 	
@@ -107,6 +123,9 @@ public final class DataVolume implements Comparable<DataVolume> , Serializable {
 		
 		public static Unit determineBestDisplayUnit(DataVolume volume)
 		{
+			if ( volume.bytes != -1 ) {
+				return determineBestDisplayUnit( volume.bytes );
+			}
 			final List<Unit> unitsFromSmallestToLargest = getUnitsFromSmallestToLargest();
 			for ( int i = 0 ; i < unitsFromSmallestToLargest.size() ; i++)
 			{
@@ -122,6 +141,33 @@ public final class DataVolume implements Comparable<DataVolume> , Serializable {
 			return unitsFromSmallestToLargest.get( unitsFromSmallestToLargest.size() -1 );
 		}
 		
+		/**
+		 * Same as {@link #determineBestDisplayUnit(DataVolume)}, without allocating anything.
+		 */
+		public static Unit determineBestDisplayUnit(long bytes)
+		{
+			if ( bytes <= 1024L ) {
+				return BYTES;
+			}
+			if ( bytes <= 1024L*1024 ) {
+				return KILOBYTES;
+			}
+			if ( bytes <= 1024L*1024*1024 ) {
+				return MEGABYTES;
+			}
+			if ( bytes <= 1024L*1024*1024*1024 ) {
+				return GIGABYTES;
+			}
+			return TERABYTES;
+		}
+
+		/**
+		 * @return log2 of the number of bytes per unit
+		 */
+		private int getShift() {
+			return 10 * ordinal();
+		}
+
 		public static List<Unit> getUnitsFromSmallestToLargest()
 		{
 			if ( UNITS_FROM_SMALLEST_TO_LARGEST == null ) 
@@ -134,10 +180,80 @@ public final class DataVolume implements Comparable<DataVolume> , Serializable {
 		}		
 	}
 	
+	/**
+	 * Formats sizes like <code>new DecimalFormat("###################0.0#")</code> would,
+	 * rounding half-even to at most two decimals, but without creating any intermediate objects.
+	 */
+	private static final class PrettyFormatter
+	{
+		private final StringBuilder buffer = new StringBuilder();
+		private final char[] digits = new char[19];
+		private final char decimalSeparator;
+		private final char zeroDigit;
+
+		public PrettyFormatter()
+		{
+			final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+			this.decimalSeparator = symbols.getDecimalSeparator();
+			this.zeroDigit = symbols.getZeroDigit();
+		}
+
+		public String format(long bytes)
+		{
+			final Unit unit = Unit.determineBestDisplayUnit( bytes );
+			final int shift = unit.getShift();
+			long integer = bytes >>> shift;
+			long hundredths = 0;
+			if ( shift > 0 )
+			{
+				// remainder < 2^40, so this can't overflow
+				final long scaled = ( bytes & ( ( 1L << shift ) - 1 ) ) * 100;
+				hundredths = scaled >>> shift;
+				final long rest = scaled & ( ( 1L << shift ) - 1 );
+				final long half = 1L << ( shift - 1 );
+				if ( rest > half || ( rest == half && ( hundredths & 1 ) != 0 ) ) {
+					hundredths++;
+				}
+				if ( hundredths == 100 )
+				{
+					integer++;
+					hundredths = 0;
+				}
+			}
+			buffer.setLength( 0 );
+			appendDigits( integer );
+			buffer.append( decimalSeparator );
+			buffer.append( (char) ( zeroDigit + hundredths / 10 ) );
+			if ( ( hundredths % 10 ) != 0 ) {
+				buffer.append( (char) ( zeroDigit + hundredths % 10 ) );
+			}
+			return buffer.append( ' ' ).append( unit.toString() ).toString();
+		}
+
+		private void appendDigits(long value)
+		{
+			int start = digits.length;
+			do
+			{
+				digits[--start] = (char) ( zeroDigit + value % 10 );
+				value /= 10;
+			} while ( value != 0 );
+			buffer.append( digits, start, digits.length - start );
+		}
+	}
+
 	public static DataVolume bytes(long value) {
-		return new DataVolume( new BigDecimal( value ), Unit.BYTES );
+		if ( value < 0 ) {
+			throw new IllegalArgumentException("value cannot be negative");
+		}
+		return new DataVolume( value );
 	}
 	
+	private DataVolume(long bytes) {
+		this.bytes = bytes;
+		this.unit = Unit.BYTES;
+	}
+
 	public DataVolume(BigDecimal value, Unit unit) {
 		if ( unit == null ) {
 			throw new IllegalArgumentException("unit cannot be NULL");
@@ -150,9 +266,22 @@ public final class DataVolume implements Comparable<DataVolume> , Serializable {
 		}
 		this.value = value;
 		this.unit = unit;
+		this.bytes = toLong( value.multiply( unit.getFactor() ) );
 	}
 	
+	private static long toLong(BigDecimal sizeInBytes)
+	{
+		try {
+			return sizeInBytes.longValueExact();
+		} catch(ArithmeticException e) {
+			return -1;
+		}
+	}
+
 	public BigDecimal getValue() {
+		if ( value == null ) {
+			value = new BigDecimal( bytes );
+		}
 		return value;
 	}
 	
@@ -174,22 +303,42 @@ public final class DataVolume implements Comparable<DataVolume> , Serializable {
 	public BigDecimal getSizeInBytes()
 	{
 		if ( this.sizeInBytes == null ) {
-			this.sizeInBytes = value.multiply( unit.getFactor() );			
+			this.sizeInBytes = getValue().multiply( unit.getFactor() );
 		}
 		return sizeInBytes;
 	}
 	
 	@Override
 	public String toString() {
-		return value+" "+unit;
+		return getValue()+" "+unit;
 	}
 	
+	/**
+	 * @return size in bytes or -1 if it is not a whole number of bytes or does not fit into a <code>long</code>
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
 	public String toPrettyString() {
+		if ( bytes != -1 ) {
+			return FORMATTER.get().format( bytes );
+		}
 		Unit displayUnit = Unit.determineBestDisplayUnit( this );
 		DataVolume converted = convertTo( displayUnit );
 		final DecimalFormat DF = new DecimalFormat("###################0.0#");
 		return DF.format( converted.getValue() )+" "+displayUnit;
 	}
+
+	/**
+	 * Same as <code>DataVolume.bytes( bytes ).toPrettyString()</code>.
+	 */
+	public static String toPrettyString(long bytes) {
+		if ( bytes < 0 ) {
+			throw new IllegalArgumentException("value cannot be negative");
+		}
+		return FORMATTER.get().format( bytes );
+	}
 	
 	@Override
 	public boolean equals(Object obj) {
@@ -197,6 +346,9 @@ public final class DataVolume implements Comparable<DataVolume> , Serializable {
 			if ( this == obj ) {
 				return true;
 			}
+			if ( this.bytes != -1 && ((DataVolume) obj).bytes != -1 ) {
+				return this.bytes == ((DataVolume) obj).bytes;
+			}
 			return this.getSizeInBytes().equals( ((DataVolume) obj).getSizeInBytes() );
 		}
 		return false;
@@ -204,12 +356,18 @@ public final class DataVolume implements Comparable<DataVolume> , Serializable {
 	
 	@Override
 	public int hashCode() {
+		if ( bytes != -1 ) {
+			return Long.hashCode( bytes );
+		}
 		return this.getSizeInBytes().hashCode();
 	}
 	
 	@Override
 	public int compareTo(DataVolume other)
 	{
+		if ( this.bytes != -1 && other.bytes != -1 ) {
+			return Long.compare( this.bytes, other.bytes );
+		}
 		BigDecimal val1 = convertTo( Unit.MEGABYTES ).getValue();
 		BigDecimal val2 = other.convertTo( Unit.MEGABYTES ).getValue();
 		return val1.compareTo( val2 );
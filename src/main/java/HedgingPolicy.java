@@ -0,0 +1,107 @@
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides when to send a duplicate of a request that takes unusually long, using whichever response
+ * arrives first (see Dean, Barroso: "The Tail at Scale").
+ *
+ * A request gets hedged once it has been waiting for its response longer than the 95th percentile latency
+ * observed for its endpoint. Hedges are paid from a budget that grows by {@link #HEDGE_RATIO} with every request sent,
+ * so hedging adds at most about 5% to the number of requests, even if the server slows down across the board.
+ *
+ * Thread-safe.
+ */
+final class HedgingPolicy
+{
+    /**
+     * Hedges earned per request sent.
+     */
+    private static final double HEDGE_RATIO = 0.05;
+
+    /**
+     * Max. number of hedges that can be saved up.
+     */
+    private static final double MAX_BUDGET = 10;
+
+    /**
+     * Responses needed before latencies are trusted.
+     */
+    private static final long MIN_SAMPLES = 100;
+
+    /**
+     * How often the hedging delay of an endpoint is recomputed from its latency histogram.
+     */
+    private static final long REFRESH_MILLIS = 1000;
+
+    /**
+     * Never hedge a request sooner than this.
+     */
+    private static final long MIN_DELAY_MILLIS = 10;
+
+    private static final long NO_HEDGING = -1;
+
+    private final ScanMetrics metrics;
+    private final Set<ScanMetrics.Endpoint> endpoints;
+    private final AtomicLongArray delays = new AtomicLongArray( ScanMetrics.Endpoint.values().length );
+    private final AtomicLongArray refreshed = new AtomicLongArray( ScanMetrics.Endpoint.values().length );
+
+    private double budget;
+
+    /**
+     * @param metrics latencies observed so far
+     * @param endpoints endpoints whose requests may be hedged
+     */
+    public HedgingPolicy(ScanMetrics metrics, Set<ScanMetrics.Endpoint> endpoints)
+    {
+        this.metrics = metrics;
+        this.endpoints = EnumSet.copyOf( endpoints );
+        for ( int i = 0 ; i < delays.length() ; i++ ) {
+            delays.set( i, NO_HEDGING );
+        }
+    }
+
+    /**
+     * Called for every request sent, adds to the hedging budget.
+     */
+    public synchronized void requestSent()
+    {
+        budget = Math.min( MAX_BUDGET, budget + HEDGE_RATIO );
+    }
+
+    /**
+     * Returns how long to wait for a response before hedging a request.
+     *
+     * @return delay in milliseconds, negative if requests to this endpoint must not be hedged (yet)
+     */
+    public long getDelayMillis(ScanMetrics.Endpoint endpoint)
+    {
+        if ( ! endpoints.contains( endpoint ) ) {
+            return NO_HEDGING;
+        }
+        final int idx = endpoint.ordinal();
+        final long now = System.currentTimeMillis();
+        final long last = refreshed.get( idx );
+        if ( now - last >= REFRESH_MILLIS && refreshed.compareAndSet( idx, last, now ) )
+        {
+            final ScanMetrics.IEndpointMetrics latencies = metrics.getEndpointMetrics( endpoint );
+            delays.set( idx, latencies.getRequests() < MIN_SAMPLES ? NO_HEDGING :
+                Math.max( MIN_DELAY_MILLIS, (long) Math.ceil( latencies.getLatencyP95Millis() ) ) );
+        }
+        return delays.get( idx );
+    }
+
+    /**
+     * Takes a hedge from the budget.
+     *
+     * @return <code>false</code> if the budget is used up
+     */
+    public synchronized boolean tryHedge()
+    {
+        if ( budget < 1 ) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,161 @@
+import java.time.ZonedDateTime;
+
+/**
+ * Read access to a tree whose nodes are addressed by index.
+ *
+ * The root node has index 0 and every node comes after its parent, so a single backwards pass over
+ * the indices visits all children before their parents. Implemented by {@link NodeStore} for scanned trees and by
+ * {@link ScanSnapshot} for mapped snapshots; the treemap shows either through {@link NodeTableModel} without
+ * creating an object per node.
+ */
+public interface INodeTable
+{
+    int NO_NODE = -1;
+
+    /**
+     * A single node of a table.
+     *
+     * Views are cheap to create and don't hold any data of their own, two views
+     * on the same node are equal.
+     */
+    final class Node
+    {
+        public final INodeTable table;
+        public final int index;
+
+        public Node(INodeTable table, int index)
+        {
+            this.table = table;
+            this.index = index;
+        }
+
+        /**
+         * @return parent node or <code>null</code> for the root node
+         */
+        public Node getParent()
+        {
+            final int parent = table.getParent( index );
+            return parent == NO_NODE ? null : new Node( table, parent );
+        }
+
+        public boolean isLeaf()
+        {
+            return table.getFirstChild( index ) == NO_NODE;
+        }
+
+        public String getPathSegment()
+        {
+            return table.getPathSegment( index );
+        }
+
+        public String getPath()
+        {
+            return table.getPath( index );
+        }
+
+        public long getSizeInBytes()
+        {
+            return table.getSizeInBytes( index );
+        }
+
+        /**
+         * @return latest date or <code>null</code> if the node has none
+         */
+        public ZonedDateTime getLatestDate()
+        {
+            return Timestamps.toDate( table.getLatestDateMillis( index ) );
+        }
+
+        /**
+         * @see INodeTable#isUnexpanded(int)
+         */
+        public boolean isUnexpanded()
+        {
+            return table.isUnexpanded( index );
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if ( obj instanceof Node )
+            {
+                final Node other = (Node) obj;
+                return other.table == table && other.index == index;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return index;
+        }
+
+        @Override
+        public String toString()
+        {
+            return table.getRepository().repoId+";"+getPath()+";"+getSizeInBytes()+";"+getLatestDate();
+        }
+    }
+
+    ArtifactoryClient.Repository getRepository();
+
+    int getNodeCount();
+
+    /**
+     * @return index of the parent node or {@link #NO_NODE} for the root node
+     */
+    int getParent(int node);
+
+    /**
+     * @return index of the first child or {@link #NO_NODE} if the node has no children
+     */
+    int getFirstChild(int node);
+
+    /**
+     * @return index of the next sibling or {@link #NO_NODE} if this is the parent's last child
+     */
+    int getNextSibling(int node);
+
+    /**
+     * @return the node's path segment, starting with a '/' (or empty for the root node)
+     */
+    String getPathSegment(int node);
+
+    default String getPath(int node)
+    {
+        final StringBuilder result = new StringBuilder();
+        for ( int current = node ; current != NO_NODE ; current = getParent( current ) ) {
+            result.insert( 0, getPathSegment( current ) );
+        }
+        return result.toString();
+    }
+
+    long getSizeInBytes(int node);
+
+    /**
+     * @return latest date as epoch millis or {@link Timestamps#NO_DATE}
+     */
+    long getLatestDateMillis(int node);
+
+    /**
+     * @return when the folder itself was last modified as epoch millis or {@link Timestamps#NO_DATE}
+     */
+    long getLastModifiedMillis(int node);
+
+    /**
+     * @return whether the folder's contents have not been scanned, see {@link SizeAndLatestDate#unexpanded}
+     */
+    boolean isUnexpanded(int node);
+
+    /**
+     * @return size of the files directly inside a folder that were last updated before a given day
+     * @see SizeAndLatestDate#getOwnSizeBefore(int)
+     */
+    long getOwnSizeBefore(int node, int day);
+
+    default Node getRoot()
+    {
+        return new Node( this, 0 );
+    }
+}
@@ -0,0 +1,127 @@
+import org.apache.commons.lang3.Validate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Sends HTTP requests to the Artifactory REST API.
+ */
+public interface ITransport extends Closeable
+{
+    final class Request
+    {
+        public final String method;
+        /**
+         * Path relative to the API URL, starting with a '/'.
+         */
+        public final String path;
+        public final String body;
+        public final String contentType;
+        /**
+         * Additional request headers.
+         */
+        public final Map<String,String> headers;
+
+        private Request(String method, String path, String body, String contentType, Map<String,String> headers)
+        {
+            Validate.notBlank( path, "path must not be null or blank" );
+            this.method = method;
+            this.path = path;
+            this.body = body;
+            this.contentType = contentType;
+            this.headers = headers;
+        }
+
+        private Request(String method, String path, String body, String contentType)
+        {
+            this( method, path, body, contentType, Collections.emptyMap() );
+        }
+
+        /**
+         * @return copy of this request with an additional header
+         */
+        public Request withHeader(String name, String value)
+        {
+            Validate.notBlank( name, "name must not be null or blank" );
+            Validate.notNull( value, "value must not be null" );
+            final Map<String,String> newHeaders = new LinkedHashMap<>( headers );
+            newHeaders.put( name, value );
+            return new Request( method, path, body, contentType, Collections.unmodifiableMap( newHeaders ) );
+        }
+
+        public static Request get(String path)
+        {
+            return new Request( "GET", path, null, null );
+        }
+
+        public static Request post(String path, String body, String contentType)
+        {
+            Validate.notNull( body, "body must not be null" );
+            Validate.notBlank( contentType, "content type must not be null or blank" );
+            return new Request( "POST", path, body, contentType );
+        }
+    }
+
+    /**
+     * A response whose body has not been read yet.
+     *
+     * Must be closed to release the underlying connection.
+     */
+    final class Response implements Closeable
+    {
+        public final int statusCode;
+        public final String statusText;
+        public final InputStream body;
+        private final Function<String,String> headers;
+        private final Runnable onClose;
+
+        public Response(int statusCode, String statusText, InputStream body, Function<String,String> headers, Runnable onClose)
+        {
+            this.statusCode = statusCode;
+            this.statusText = statusText;
+            this.body = body;
+            this.headers = headers;
+            this.onClose = onClose;
+        }
+
+        /**
+         * @return value of the first header with the given name or <code>null</code>
+         */
+        public String getHeader(String name)
+        {
+            return headers.apply( name );
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                if ( body != null ) {
+                    body.close();
+                }
+            }
+            finally
+            {
+                onClose.run();
+            }
+        }
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @param request
+     * @return future that completes as soon as the response headers have been received
+     */
+    CompletableFuture<Response> send(Request request);
+
+    @Override
+    void close();
+}
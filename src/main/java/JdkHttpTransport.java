@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Non-blocking transport based on the JDK's {@link HttpClient}.
+ *
+ * Uses HTTP/2 where the server offers it and requests gzip-compressed responses. No thread is
+ * occupied while waiting for a response, so a handful of threads can serve thousands of requests in flight.
+ * The number of concurrent requests (and thus connections) is bounded by the caller, including hedged duplicates.
+ */
+final class JdkHttpTransport implements ITransport
+{
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds( 30 );
+
+    /**
+     * How long to wait for the response headers, so that a hung request fails (and gets retried) instead of
+     * holding up its scan forever.
+     */
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes( 5 );
+
+    private final String apiUrl;
+    private final String authorization;
+    private final HttpClient client;
+    private final ExecutorService executor;
+
+    public JdkHttpTransport(String apiUrl, String user, String password)
+    {
+        this.apiUrl = apiUrl;
+        this.authorization = "Basic " + Base64.getEncoder().encodeToString( ( user + ":" + password ).getBytes( StandardCharsets.UTF_8 ) );
+
+        final AtomicInteger id = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool( 4, r ->
+        {
+            final Thread t = new Thread(r);
+            t.setDaemon( true );
+            t.setName("http-async-"+id.incrementAndGet());
+            return t;
+        });
+        this.client = HttpClient.newBuilder()
+            .version( HttpClient.Version.HTTP_2 )
+            .connectTimeout( CONNECT_TIMEOUT )
+            .executor( executor )
+            .build();
+    }
+
+    @Override
+    public CompletableFuture<Response> send(Request request)
+    {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder( URI.create( apiUrl + request.path ) )
+            .header( "Authorization", authorization )
+            .header( "Accept-Encoding", "gzip" )
+            .timeout( REQUEST_TIMEOUT );
+        request.headers.forEach( builder::header );
+        if ( "POST".equals( request.method ) ) {
+            builder.header( "Content-Type", request.contentType ).POST( HttpRequest.BodyPublishers.ofString( request.body ) );
+        } else {
+            builder.GET();
+        }
+        return client.sendAsync( builder.build(), HttpResponse.BodyHandlers.ofInputStream() ).thenApply( response ->
+        {
+            final InputStream body = decode( response );
+            return new Response( response.statusCode(), "", body, name -> response.headers().firstValue( name ).orElse( null ), () -> {} );
+        });
+    }
+
+    private static InputStream decode(HttpResponse<InputStream> response)
+    {
+        final boolean isGzipped = response.headers().firstValue( "Content-Encoding" ).map( "gzip"::equalsIgnoreCase ).orElse( false );
+        return isGzipped ? new LazyGzipInputStream( response.body() ) : response.body();
+    }
+
+    /**
+     * Creating a {@link GZIPInputStream} already reads the gzip header, which would block
+     * the HTTP client's threads. Defers that until the body actually gets read.
+     */
+    private static final class LazyGzipInputStream extends InputStream
+    {
+        private final InputStream compressed;
+        private InputStream delegate;
+
+        public LazyGzipInputStream(InputStream compressed)
+        {
+            this.compressed = compressed;
+        }
+
+        private InputStream delegate() throws IOException
+        {
+            if ( delegate == null ) {
+                delegate = new GZIPInputStream( compressed, 64 * 1024 );
+            }
+            return delegate;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            return delegate().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            return delegate().read( b, off, len );
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if ( delegate != null ) {
+                delegate.close();
+            } else {
+                compressed.close();
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+}
@@ -9,10 +9,10 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
 
-final class LabelAndCushionRenderer extends CushionRectangleRenderer<SizeAndLatestDate>
+final class LabelAndCushionRenderer extends CushionRectangleRenderer<INodeTable.Node>
 {
 
-    private final LabelRenderer<SizeAndLatestDate> labelrenderer;
+    private final LabelRenderer<INodeTable.Node> labelrenderer;
 
     public LabelAndCushionRenderer(Font font, int colorRangeSize)
     {
@@ -20,16 +20,16 @@ final class LabelAndCushionRenderer extends CushionRectangleRenderer<SizeAndLate
         this.labelrenderer = new LabelRenderer<>( font );
     }
 
-    public void render(Graphics2D var1, ITreeModel<IRectangle<SizeAndLatestDate>> var2, IRectangle<SizeAndLatestDate> var3, IColorProvider<SizeAndLatestDate, Color> var4, ILabelProvider<SizeAndLatestDate> var5) {
+    public void render(Graphics2D var1, ITreeModel<IRectangle<INodeTable.Node>> var2, IRectangle<INodeTable.Node> var3, IColorProvider<INodeTable.Node, Color> var4, ILabelProvider<INodeTable.Node> var5) {
         super.render( var1,var2,var3,var4,var5 );
         labelrenderer.render( var1,var2,var3,var4,var5 );
     }
 
     public void highlight(Graphics2D var1,
-                          ITreeModel<IRectangle<SizeAndLatestDate>> var2,
-                          IRectangle<SizeAndLatestDate> var3,
-                          IColorProvider<SizeAndLatestDate, Color> var4,
-                          ILabelProvider<SizeAndLatestDate> var5)
+                          ITreeModel<IRectangle<INodeTable.Node>> var2,
+                          IRectangle<INodeTable.Node> var3,
+                          IColorProvider<INodeTable.Node, Color> var4,
+                          ILabelProvider<INodeTable.Node> var5)
     {
         super.highlight( var1,var2,var3,var4,var5 );
         labelrenderer.highlight( var1,var2,var3,var4,var5 );
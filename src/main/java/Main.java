@@ -1,10 +1,9 @@
 import de.engehausen.treemap.IRectangle;
-import de.engehausen.treemap.impl.GenericTreeModel;
-import de.engehausen.treemap.swing.TreeMap;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListCellRenderer;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -19,46 +18,87 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Stack;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
 public class Main
 {
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern( "yyyy-MM-dd HH:mm:ss.SSSZ" );
 
-    private static final Pattern TZ_PATTERN = Pattern.compile(".*?(\\+|-)\\d{2,}(:)?\\d*$");
-
     private static final MyTreeMap treeMap = new MyTreeMap();
     private static Optional<ArtifactoryClient.Repository> currentRepo = Optional.empty();
-    private static Predicate<SizeAndLatestDate> nodeFilter = node -> true;
+    /**
+     * Only files last updated before this date are shown.
+     */
+    private static Optional<ZonedDateTime> olderThan = Optional.empty();
+    /**
+     * Nodes currently shown.
+     */
+    private static INodeTable currentTable;
+    /**
+     * Tree of the nodes currently shown if they come from a lazy scan, needed to expand their unexpanded folders.
+     * <code>null</code> otherwise, other trees are dropped once copied into a {@link NodeStore}.
+     */
+    private static SizeAndLatestDate currentTree;
+    /**
+     * Paths of the unexpanded folders currently being scanned.
+     */
+    private static final Set<String> expanding = new HashSet<>();
+    /**
+     * Held while a scanned folder gets spliced into the tree shown, so that concurrent expansions don't lose each other's results.
+     */
+    private static final Object EXPAND_LOCK = new Object();
+    /**
+     * Tooltips of the nodes hovered so far, cleared whenever another tree is shown.
+     */
+    private static final Map<INodeTable.Node,String> tooltips = new HashMap<>();
     private static JFrame frame;
     private static final JComboBox<ArtifactoryClient.Repository> choices = new JComboBox<>();
 
     private static final AtomicBoolean stopWorker = new AtomicBoolean();
     private static Thread currentWorker = null;
+    /**
+     * Incremented whenever another repository gets shown, so that snapshots read in the background
+     * don't replace a newer selection. Only accessed on the EDT.
+     */
+    private static int refreshCount;
 
     private static final JTextField apiUrl = new JTextField("http://localhost:8081/artifactory/api");
     private static final JTextField apiUser = new JTextField("apiuser");
     private static final JTextField apiPassword = new JTextField("apitest");
-
-    private static final DateTimeFormatter[] DATE_FORMATS =
-            {
-                    DateTimeFormatter.ofPattern( "yyyy-MM-dd", Locale.getDefault() ),
-                    DateTimeFormatter.ofPattern( "yyyy-MM-dd HH:mm" ),
-                    DateTimeFormatter.ofPattern( "yyyy-MM-dd HH:mmZ" ),
-                    DateTimeFormatter.ofPattern( "yyyy-MM-dd HH:mm:ss" ),
-                    DateTimeFormatter.ofPattern( "yyyy-MM-dd HH:mm:ssZ" ),
-                    DateTimeFormatter.ofPattern( "yyyy-MM-dd HH:mm:ss.SSSZ" ),
-            };
+    private static final JCheckBox rescan = new JCheckBox("Rescan");
+    private static final JCheckBox progressive = new JCheckBox("Progressive", true);
+    private static final JCheckBox lazy = new JCheckBox("Lazy");
+
+    /**
+     * How many levels of folders a lazy scan descends into, deeper folders get scanned when clicked.
+     */
+    private static final int LAZY_DEPTH = Integer.getInteger( "artifactory.lazyDepth", 2 );
+
+    /**
+     * How often the treemap gets updated while a scan is running.
+     */
+    private static final long PARTIAL_RESULT_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Format of the 'last modified' filter. File sizes are only known per day, so the filter takes days as well,
+     * starting at midnight UTC.
+     */
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
 
     private static final ArtifactoryClient client = new ArtifactoryClient();
     private static ArtifactoryScanner scanner;
@@ -67,56 +107,159 @@ public class Main
 
     public static void main(String[] args) throws Exception
     {
-        client.setMaxHostConnections( 10 );
+        // upper bound only, the number of concurrent requests adapts itself to the server's response times
+        client.setMaxHostConnections( 64 );
+        final String transport = System.getProperty( "artifactory.transport" );
+        if ( transport != null ) {
+            client.setTransport( ArtifactoryClient.Transport.valueOf( transport ) );
+        }
+        // rescanning an unchanged repository only transfers "304 Not Modified" responses, 0 turns the cache off
+        final long cacheSizeMegabytes = Long.getLong( "artifactory.cacheSize", 256 );
+        if ( cacheSizeMegabytes > 0 )
+        {
+            final String cacheDir = System.getProperty( "artifactory.cacheDir" );
+            client.setResponseCache( new ResponseCache( cacheDir == null ? ResponseCache.DEFAULT_DIR : Paths.get( cacheDir ),
+                cacheSizeMegabytes * 1024 * 1024 ) );
+        }
+        // inspect with jconsole or VisualVM, optionally also logged every N seconds
+        client.getMetrics().registerMBeans();
+        client.getMetrics().startLogging( Integer.getInteger( "artifactory.metricsInterval", 0 ) );
         scanner = new ArtifactoryScanner( client );
         init();
     }
 
-    private static GenericTreeModel<SizeAndLatestDate> createTreeModel(SizeAndLatestDate root, Predicate<SizeAndLatestDate> pred)
+    /**
+     * Creates the treemap model for a table of nodes.
+     *
+     * With a date given, a folder's weight is the size of the files below it that were last updated before that day,
+     * summed up from the folders' size histograms. The table itself is neither copied nor changed.
+     */
+    static NodeTableModel createTreeModel(INodeTable table, Optional<ZonedDateTime> olderThan)
+    {
+        final int day = olderThan.map( date -> SizeHistogram.day( date.toInstant().toEpochMilli() ) ).orElse( Integer.MAX_VALUE );
+        return new NodeTableModel( table, day );
+    }
+
+    /**
+     * Copies a scanned tree into a {@link NodeStore}, which is what the treemap shows.
+     *
+     * Takes a while for large trees, so must not be called on the EDT.
+     */
+    private static NodeStore toNodeStore(SizeAndLatestDate tree)
     {
-        final AtomicInteger accepted = new AtomicInteger();
-        final AtomicInteger rejected = new AtomicInteger();
-        final Predicate<SizeAndLatestDate> filter = item ->
+        tree.sortChildren();
+        return NodeStore.of( tree.getRepo(), tree );
+    }
+
+    /**
+     * Shows nodes in the treemap, applying the current date filter.
+     *
+     * Model and layout get computed in the background, replacing whatever the treemap is computing at the moment.
+     *
+     * @param table nodes to show
+     * @param tree the tree the nodes were copied from if it has unexpanded folders that may get expanded, otherwise <code>null</code>
+     * @param replaceRunning <code>false</code> to let the treemap finish the model it's computing at the moment first
+     */
+    private static void showTable(INodeTable table, SizeAndLatestDate tree, boolean replaceRunning)
+    {
+        currentTable = table;
+        currentTree = tree;
+        tooltips.clear();
+        final Optional<ZonedDateTime> filter = olderThan;
+        treeMap.setTreeModel( () -> createTreeModel( table, filter ), replaceRunning );
+    }
+
+    private static final class MyTreeMap extends CachingTreeMap<INodeTable.Node> {
+
+        @Override
+        public IRectangle<INodeTable.Node> findRectangle(int x, int y)
         {
-            if ( pred.test(item) ) {
-                accepted.incrementAndGet();
-                return true;
-            }
-            rejected.incrementAndGet();
-            return false;
-        };
+            return super.findRectangle( x, y );
+        }
+    }
 
-        final GenericTreeModel<SizeAndLatestDate> model = new GenericTreeModel<>();
-        final SizeAndLatestDate filtered = root.copy( null,filter );
-        if ( filtered != null )
+    /**
+     * A mapped snapshot, shown without copying its nodes.
+     */
+    private static final class LoadedSnapshot
+    {
+        public final ScanSnapshot nodes;
+        public final String title;
+
+        public LoadedSnapshot(ScanSnapshot nodes, String title)
         {
-            filtered.fixSizes();
-            filtered.sortChildren();
+            this.nodes = nodes;
+            this.title = title;
+        }
+    }
 
-            final Stack<SizeAndLatestDate> stack = new Stack<>();
-            stack.add( root );
-            while ( !stack.isEmpty() )
-            {
-                SizeAndLatestDate node = stack.pop();
-                model.add( node, node.sizeInBytes, node.parent, false );
-                stack.addAll( node.children );
+    /**
+     * Reads the last snapshot of a repository, if there is one.
+     *
+     * Reads from disk, so must not be called on the EDT.
+     */
+    private static Optional<LoadedSnapshot> readSnapshot(String apiUrl, ArtifactoryClient.Repository repository)
+    {
+        final Path file = ScanSnapshot.getSnapshotFile( apiUrl, repository.repoId );
+        try
+        {
+            if ( ! ScanSnapshot.exists( file ) ) {
+                return Optional.empty();
             }
+            final ScanSnapshot snapshot = ScanSnapshot.open( file );
+            return Optional.of( new LoadedSnapshot( snapshot, repository.repoId + " (snapshot from " + DATE_FORMAT.format( snapshot.getSnapshotTime() ) + ")" ) );
+        }
+        catch (IOException e)
+        {
+            System.err.println( "Failed to read snapshot " + file + ": " + e.getMessage() );
+            return Optional.empty();
         }
-        System.err.println( (accepted.get()+rejected.get())+" nodes, "+rejected.get()+" rejected, "+accepted.get()+" accepted");
-        return model;
     }
 
-    private static final class MyTreeMap extends TreeMap<SizeAndLatestDate> {
-
-        @Override
-        public IRectangle<SizeAndLatestDate> findRectangle(int x, int y)
+    private static boolean hasSnapshot(ArtifactoryClient.Repository repository)
+    {
+        try
         {
-            return super.findRectangle( x, y );
+            return ScanSnapshot.exists( ScanSnapshot.getSnapshotFile( apiUrl.getText(), repository.repoId ) );
+        }
+        catch (IOException e)
+        {
+            System.err.println( "Failed to look for snapshots: " + e.getMessage() );
+            return false;
         }
     }
 
+    /**
+     * Shows the last snapshot of a repository in the background, unless another repository has been selected by then.
+     */
+    private static void showSnapshot(ArtifactoryClient.Repository repository)
+    {
+        final String snapshotApiUrl = apiUrl.getText();
+        final int refresh = refreshCount;
+        final Thread loader = new Thread( () -> readSnapshot( snapshotApiUrl, repository ).ifPresent( snapshot -> runOnEDT( () ->
+        {
+            if ( refresh == refreshCount )
+            {
+                frame.setTitle( snapshot.title );
+                showTable( snapshot.nodes, null, true );
+            }
+        }, true ) ), "snapshot-loader" );
+        loader.setDaemon( true );
+        loader.start();
+    }
+
     private static void refreshTreemap(Optional<ArtifactoryClient.Repository> repository)
     {
+        refreshCount++;
+        if ( repository.isPresent() && ! rescan.isSelected() && hasSnapshot( repository.get() ) )
+        {
+            // the scan running would replace the snapshot's tree once done
+            stopWorker.set(true);
+            showSnapshot( repository.get() );
+            currentRepo = repository;
+            return;
+        }
+
         if ( repository.isPresent() )
         {
             while ( currentWorker != null && currentWorker.isAlive() )
@@ -133,15 +276,34 @@ public class Main
 
             stopWorker.set(false);
 
+            final String snapshotApiUrl = apiUrl.getText();
+            final boolean showPartialResults = progressive.isSelected();
+            final boolean scanLazily = lazy.isSelected();
+            scanner.setPartialResultInterval( showPartialResults ? PARTIAL_RESULT_INTERVAL_MILLIS : 0 );
             final Thread newWorker = new Thread( ()->
             {
+                final Thread self = Thread.currentThread();
                 final AtomicReference<ProgressDialog> dialogRef = new AtomicReference();
                 try
                 {
+                    // show the last results while scanning, the scan only re-lists what changed since then
+                    final Optional<SizeAndLatestDate> previous = readSnapshot( snapshotApiUrl, repository.get() ).map( snapshot ->
+                    {
+                        runOnEDT( () ->
+                        {
+                            if ( currentWorker == self && ! stopWorker.get() )
+                            {
+                                frame.setTitle( snapshot.title );
+                                showTable( snapshot.nodes, null, true );
+                            }
+                        }, true );
+                        return snapshot.nodes.toTree();
+                    });
                     runOnEDT( () ->
                     {
                         final String msg = "Scanning "+repository.get().repoId+" ...";
-                        final ProgressDialog dialog = new ProgressDialog(msg,frame)
+                        // don't block the treemap while it shows partial results
+                        final ProgressDialog dialog = new ProgressDialog(msg,frame,! showPartialResults)
                         {
                             @Override
                             protected void cancelPressed()
@@ -155,6 +317,24 @@ public class Main
                             new ArtifactoryScanner.IProgressReporter()
                             {
                                 private final AtomicInteger count = new AtomicInteger();
+                                private final AtomicReference<NodeStore> latest = new AtomicReference<>();
+
+                                @Override
+                                public void partialResult(SizeAndLatestDate tree)
+                                {
+                                    // skip updates while the EDT is still busy with the previous one
+                                    if ( latest.getAndSet( toNodeStore( tree ) ) == null )
+                                    {
+                                        SwingUtilities.invokeLater( () ->
+                                        {
+                                            final NodeStore nodes = latest.getAndSet( null );
+                                            // folders only get expanded once a lazy scan is done
+                                            if ( currentWorker == self && ! stopWorker.get() ) {
+                                                showTable( nodes, null, false );
+                                            }
+                                        });
+                                    }
+                                }
 
                                 @Override
                                 public void itemScanned()
@@ -167,19 +347,49 @@ public class Main
                                             final ProgressDialog progressDialog = dialogRef.get();
                                             if ( progressDialog != null )
                                             {
-                                                progressDialog.updateProgress( "Scanned: " + cnt + " items" );
+                                                final ConcurrencyLimiter limiter = client.getConcurrencyLimiter();
+                                                progressDialog.updateProgress( "<html>Scanned: " + cnt + " items<br>" +
+                                                    "Concurrent requests: " + limiter.getLimit() + "<br>" +
+                                                    "Latency (p95): " + limiter.getLatencyMillis() + " ms</html>" );
                                             }
                                         });
                                     }
                                 }
                             };
 
-                    final SizeAndLatestDate nodes = scanner.scanRepo( repository.get(), stopWorker::get, reporter );
+                    final SizeAndLatestDate tree;
+                    final NodeStore nodes;
+                    if ( scanLazily )
+                    {
+                        // incomplete, so no snapshot. Kept to expand its folders, but only holds the top levels anyway
+                        tree = scanner.scanRepoLazily( repository.get(), LAZY_DEPTH, stopWorker::get, reporter );
+                        nodes = toNodeStore( tree );
+                    }
+                    else
+                    {
+                        // only re-list what changed since the last snapshot
+                        tree = null;
+                        nodes = toNodeStore( previous.isPresent() ?
+                            scanner.rescanRepo( repository.get(), previous.get(), stopWorker::get, reporter ) :
+                            scanner.scanRepo( repository.get(), stopWorker::get, reporter ) );
+                        try
+                        {
+                            ScanSnapshot.write( nodes, ScanSnapshot.getSnapshotFile( snapshotApiUrl, repository.get().repoId ) );
+                        }
+                        catch (IOException e)
+                        {
+                            System.err.println( "Failed to write snapshot: " + e.getMessage() );
+                        }
+                    }
                     runOnEDT( () ->
                     {
-                        frame.setTitle( repository.get().repoId );
-                        treeMap.setTreeModel( createTreeModel( nodes, nodeFilter ) );
-                    });
+                        // stopped while showing a snapshot or superseded by another scan
+                        if ( currentWorker == self && ! stopWorker.get() )
+                        {
+                            frame.setTitle( repository.get().repoId );
+                            showTable( nodes, tree, true );
+                        }
+                    }, true );
                 }
                 catch (InterruptedException e)
                 {
@@ -194,7 +404,7 @@ public class Main
                         {
                             dialog.dispose();
                         }
-                    } );
+                    }, true );
                 }
 
             },"worker");
@@ -207,6 +417,54 @@ public class Main
         currentRepo = repository;
     }
 
+    /**
+     * Scans an unexpanded folder in the background and shows the tree with the folder's contents once done.
+     *
+     * @param path path of an unexpanded folder of the lazily scanned tree currently shown
+     */
+    private static void expand(String path)
+    {
+        final SizeAndLatestDate folder = currentTree == null ? null : currentTree.find( path );
+        if ( folder == null || ! folder.unexpanded || ! expanding.add( path ) ) {
+            return;
+        }
+        final Thread thread = new Thread( () ->
+        {
+            try
+            {
+                final SizeAndLatestDate subtree = scanner.expandFolder( folder, stopWorker::get, () -> {} );
+                synchronized ( EXPAND_LOCK )
+                {
+                    final AtomicReference<SizeAndLatestDate> tree = new AtomicReference<>();
+                    runOnEDT( () -> tree.set( currentTree ) );
+                    // null if another repository is shown by now
+                    final SizeAndLatestDate newTree = tree.get() == null ? null : tree.get().copyExpanding( subtree );
+                    final NodeStore nodes = newTree == null ? null : toNodeStore( newTree );
+                    runOnEDT( () ->
+                    {
+                        if ( newTree != null && currentTree == tree.get() ) {
+                            showTable( nodes, newTree, true );
+                        }
+                    });
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // ok, we got interrupted
+            }
+            catch (RuntimeException e)
+            {
+                e.printStackTrace();
+            }
+            finally
+            {
+                runOnEDT( () -> expanding.remove( path ) );
+            }
+        }, "expander" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
     public static void runOnEDT(Runnable r) {
         runOnEDT(r,false);
     }
@@ -260,8 +518,8 @@ public class Main
         // setup tree map
         treeMap.setLabelProvider( (iTreeModel, iRectangle) ->
         {
-            final SizeAndLatestDate node = iRectangle.getNode();
-            return node.getPath() + " ("+node.size().toPrettyString() + ")";
+            final INodeTable.Node node = iRectangle.getNode();
+            return node.getPath() + " ("+( node.isUnexpanded() ? "~" : "" ) + DataVolume.toPrettyString( node.getSizeInBytes() ) + ")";
         });
         final LabelAndCushionRenderer treeRenderer = new LabelAndCushionRenderer( frame.getFont(), 64 );
         treeMap.setRectangleRenderer( treeRenderer );
@@ -272,16 +530,25 @@ public class Main
             @Override
             public void mouseMoved(MouseEvent e)
             {
-                final IRectangle<SizeAndLatestDate> rect = treeMap.findRectangle( e.getX(), e.getY() );
-                if ( rect != null ) {
-                    final SizeAndLatestDate node = rect.getNode();
-                    final String tt = "<html>Path: "+ node.getPath() + "<br>" +
-                            "Size: " + node.size().toPrettyString() + "<br>" +
-                            "Last updated: "+ (node.latestDate==null?"--": DATE_FORMAT.format(node.latestDate ) )+"</html>";
-
+                final IRectangle<INodeTable.Node> rect = treeMap.findRectangle( e.getX(), e.getY() );
+                final String tt = rect == null ? null : tooltips.computeIfAbsent( rect.getNode(), node ->
+                    "<html>Path: "+ node.getPath() + "<br>" +
+                    "Size: " + DataVolume.toPrettyString( node.getSizeInBytes() ) + ( node.isUnexpanded() ? " (estimated, click to scan)" : "" ) + "<br>" +
+                    "Last updated: "+ (node.getLatestDate()==null?"--": DATE_FORMAT.format( node.getLatestDate() ) )+"</html>" );
+                // the same string as long as the mouse stays within a rectangle
+                if ( tt != treeMap.getToolTipText() ) {
                     treeMap.setToolTipText( tt );
-                } else {
-                    treeMap.setToolTipText( null );
+                }
+            }
+        });
+        treeMap.addMouseListener( new MouseAdapter()
+        {
+            @Override
+            public void mouseClicked(MouseEvent e)
+            {
+                final IRectangle<INodeTable.Node> rect = treeMap.findRectangle( e.getX(), e.getY() );
+                if ( rect != null && rect.getNode().isUnexpanded() ) {
+                    expand( rect.getNode().getPath() );
                 }
             }
         });
@@ -307,35 +574,34 @@ public class Main
 
         // 'last modified' restriction
         final JTextField lastModified = new JTextField(15);
+        lastModified.setToolTipText( "Only show files last updated before this day (yyyy-MM-dd, UTC)" );
 
         lastModified.addActionListener(  ev ->
         {
-            String text = lastModified.getText();
+            final String text = lastModified.getText();
             if ( text != null && ! text.isBlank() )
             {
-                if ( ! TZ_PATTERN.matcher( text ).matches() ) {
-                    text += DateTimeFormatter.ofPattern( "Z" ).format( ZonedDateTime.now() );
+                final LocalDate date;
+                try
+                {
+                    date = LocalDate.parse( text.trim(), DAY_FORMAT );
                 }
-                for ( DateTimeFormatter format : DATE_FORMATS )
+                catch(Exception e)
                 {
-                    final ZonedDateTime date;
-                    try
-                    {
-                        date = ZonedDateTime.parse( text, format );
-                    }
-                    catch(Exception e)
-                    {
-                        System.err.println( e.getMessage() );
-                        continue;
-                    }
-                    nodeFilter = node -> node.latestDate == null || ! node.isLeaf() || node.latestDate.isBefore( date );
+                    System.err.println("*** Unparseable date, expected yyyy-MM-dd: "+text);
                     return;
                 }
-                System.err.println("*** Unparseable date: "+text);
+                olderThan = Optional.of( date.atStartOfDay( ZoneOffset.UTC ) );
+                if ( currentTable != null ) {
+                    showTable( currentTable, currentTree, true );
+                }
             }
             else if ( text == null || text.isBlank() )
             {
-                nodeFilter = node -> true;
+                olderThan = Optional.empty();
+                if ( currentTable != null ) {
+                    showTable( currentTable, currentTree, true );
+                }
             }
         });
 
@@ -359,6 +625,12 @@ public class Main
         buttonPanel.add( apiUser );
         buttonPanel.add( new JLabel("Password"));
         buttonPanel.add( apiPassword );
+        rescan.setToolTipText( "Scan the repository again instead of showing the last snapshot" );
+        progressive.setToolTipText( "Update the treemap while scanning" );
+        lazy.setToolTipText( "Only scan the top " + LAZY_DEPTH + " levels of folders, click a folder to scan it" );
+        buttonPanel.add( rescan );
+        buttonPanel.add( progressive );
+        buttonPanel.add( lazy );
 
         final JPanel panel = new JPanel();
         panel.setLayout(  new GridBagLayout() );
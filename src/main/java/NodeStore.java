@@ -0,0 +1,490 @@
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Compact tree of scanned nodes, stored column by column in parallel primitive arrays.
+ *
+ * Scanners build {@link SizeAndLatestDate} trees, since their nodes get added and summed up by many threads at once.
+ * Once a scan is done its tree gets copied into a store with {@link #of(ArtifactoryClient.Repository, SizeAndLatestDate)}
+ * and dropped (except for lazily scanned trees, which only hold a few levels and are needed to expand folders).
+ * The treemap, its model and the date filter only work on stores, through {@link INodeTable}. So a repository
+ * needs the heap of its object tree only while it's being scanned, not while it's shown.
+ *
+ * A node takes about 52 bytes here (five int and three long columns plus a histogram reference) instead
+ * of the few hundred bytes of a {@link SizeAndLatestDate} with its child list, path string and date objects,
+ * not counting the histograms themselves. Path segments are interned in a table shared by all nodes. Size histograms
+ * are the exception to the primitive columns, only folders directly holding files have one.
+ *
+ * Not thread-safe. Stores don't get changed once shown, so the treemap may read them on its layout thread.
+ */
+public final class NodeStore implements INodeTable
+{
+    /**
+     * Stored as date of nodes that have none.
+     */
+    public static final long NO_DATE = Timestamps.NO_DATE;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ArtifactoryClient.Repository repository;
+
+    private int nodeCount;
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] lastChildren;
+    private int[] nextSiblings;
+    private int[] names;
+    private long[] sizes;
+    private long[] latestDates;
+    private long[] lastModifiedDates;
+    private SizeHistogram[] histograms;
+    private final BitSet unexpanded = new BitSet();
+
+    private final Map<String,Integer> segmentIds = new HashMap<>();
+    private final List<String> segments = new ArrayList<>();
+
+    public NodeStore(ArtifactoryClient.Repository repository)
+    {
+        this( repository, INITIAL_CAPACITY );
+    }
+
+    /**
+     * Creates a store holding only a root node.
+     *
+     * @param repository repository the nodes belong to
+     * @param capacity number of nodes to reserve space for
+     */
+    public NodeStore(ArtifactoryClient.Repository repository, int capacity)
+    {
+        Validate.notNull( repository, "repository must not be null" );
+        Validate.isTrue( capacity > 0, "capacity must be > 0" );
+        this.repository = repository;
+        parents = new int[ capacity ];
+        firstChildren = new int[ capacity ];
+        lastChildren = new int[ capacity ];
+        nextSiblings = new int[ capacity ];
+        names = new int[ capacity ];
+        sizes = new long[ capacity ];
+        latestDates = new long[ capacity ];
+        lastModifiedDates = new long[ capacity ];
+        histograms = new SizeHistogram[ capacity ];
+        addNode( NO_NODE, internSegment( "" ) );
+    }
+
+    /**
+     * Copies a tree of {@link SizeAndLatestDate} nodes.
+     *
+     * Nodes are numbered breadth-first, so each node's children are adjacent.
+     */
+    public static NodeStore of(ArtifactoryClient.Repository repository, SizeAndLatestDate root)
+    {
+        Validate.notNull( root, "root must not be null" );
+        final NodeStore result = new NodeStore( repository );
+        final Deque<SizeAndLatestDate> queue = new ArrayDeque<>();
+        final Deque<Integer> indices = new ArrayDeque<>();
+        queue.add( root );
+        indices.add( 0 );
+        while ( ! queue.isEmpty() )
+        {
+            final SizeAndLatestDate node = queue.removeFirst();
+            final int index = indices.removeFirst();
+            result.sizes[index] = node.sizeInBytes;
+            result.latestDates[index] = node.latestDate;
+            result.lastModifiedDates[index] = node.lastModified;
+            // histograms only change while scanning, share them
+            result.histograms[index] = node.histogram;
+            result.unexpanded.set( index, node.unexpanded );
+            for ( SizeAndLatestDate child : node.children )
+            {
+                queue.add( child );
+                indices.add( result.addNode( index, child.getPathSegment() ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a tree of {@link SizeAndLatestDate} nodes from this store.
+     *
+     * @return root node
+     */
+    public SizeAndLatestDate toTree()
+    {
+        final SizeAndLatestDate[] nodes = new SizeAndLatestDate[ nodeCount ];
+        nodes[0] = new SizeAndLatestDate( repository, "" );
+        for ( int i = 0 ; i < nodeCount ; i++ )
+        {
+            if ( i > 0 ) {
+                nodes[i] = new SizeAndLatestDate( nodes[ parents[i] ], segments.get( names[i] ) );
+            }
+            nodes[i].sizeInBytes = sizes[i];
+            nodes[i].latestDate = latestDates[i];
+            nodes[i].lastModified = lastModifiedDates[i];
+            nodes[i].histogram = histograms[i];
+            nodes[i].unexpanded = unexpanded.get( i );
+        }
+        return nodes[0];
+    }
+
+    /**
+     * Returns the ID of a path segment, adding it to the segment table if necessary.
+     */
+    public int internSegment(String segment)
+    {
+        Validate.notNull( segment, "segment must not be null" );
+        return segmentIds.computeIfAbsent( segment, key ->
+        {
+            segments.add( key );
+            return segments.size() - 1;
+        });
+    }
+
+    /**
+     * @return ID of a path segment or -1 if no node uses it
+     */
+    public int getSegmentId(String segment)
+    {
+        return segmentIds.getOrDefault( segment, -1 );
+    }
+
+    public String getSegment(int segmentId)
+    {
+        return segments.get( segmentId );
+    }
+
+    public int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    /**
+     * Adds a node as last child of another node.
+     *
+     * @return index of the new node
+     */
+    public int addNode(int parent, String segment)
+    {
+        return addNode( parent, internSegment( segment ) );
+    }
+
+    /**
+     * Adds a node as last child of another node.
+     *
+     * @param parent parent node or {@link #NO_NODE} for the root node
+     * @param segmentId ID of the node's path segment as returned by {@link #internSegment(String)}
+     * @return index of the new node
+     */
+    public int addNode(int parent, int segmentId)
+    {
+        Validate.isTrue( parent == NO_NODE ? nodeCount == 0 : parent >= 0 && parent < nodeCount, "Invalid parent: %d", parent );
+        Validate.isTrue( segmentId >= 0 && segmentId < segments.size(), "Invalid segment ID: %d", segmentId );
+        if ( nodeCount == parents.length ) {
+            grow();
+        }
+        final int node = nodeCount++;
+        parents[node] = parent;
+        firstChildren[node] = NO_NODE;
+        lastChildren[node] = NO_NODE;
+        nextSiblings[node] = NO_NODE;
+        names[node] = segmentId;
+        sizes[node] = 0;
+        latestDates[node] = NO_DATE;
+        lastModifiedDates[node] = NO_DATE;
+        histograms[node] = null;
+        unexpanded.clear( node );
+        if ( parent != NO_NODE )
+        {
+            if ( lastChildren[parent] == NO_NODE ) {
+                firstChildren[parent] = node;
+            } else {
+                nextSiblings[ lastChildren[parent] ] = node;
+            }
+            lastChildren[parent] = node;
+        }
+        return node;
+    }
+
+    private void grow()
+    {
+        final int newCapacity = (int) Math.min( Integer.MAX_VALUE - 8, parents.length * 3L / 2 + 1 );
+        Validate.validState( newCapacity > parents.length, "Too many nodes" );
+        parents = Arrays.copyOf( parents, newCapacity );
+        firstChildren = Arrays.copyOf( firstChildren, newCapacity );
+        lastChildren = Arrays.copyOf( lastChildren, newCapacity );
+        nextSiblings = Arrays.copyOf( nextSiblings, newCapacity );
+        names = Arrays.copyOf( names, newCapacity );
+        sizes = Arrays.copyOf( sizes, newCapacity );
+        latestDates = Arrays.copyOf( latestDates, newCapacity );
+        lastModifiedDates = Arrays.copyOf( lastModifiedDates, newCapacity );
+        histograms = Arrays.copyOf( histograms, newCapacity );
+    }
+
+    /**
+     * @return child with the given path segment or {@link #NO_NODE}
+     */
+    public int findChild(int node, String segment)
+    {
+        final int segmentId = getSegmentId( segment );
+        if ( segmentId != -1 )
+        {
+            for ( int child = firstChildren[node] ; child != NO_NODE ; child = nextSiblings[child] )
+            {
+                if ( names[child] == segmentId ) {
+                    return child;
+                }
+            }
+        }
+        return NO_NODE;
+    }
+
+    @Override
+    public ArtifactoryClient.Repository getRepository()
+    {
+        return repository;
+    }
+
+    @Override
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    public Node getNode(int node)
+    {
+        checkIndex( node );
+        return new Node( this, node );
+    }
+
+    /**
+     * @return index of the parent node or {@link #NO_NODE} for the root node
+     */
+    @Override
+    public int getParent(int node)
+    {
+        checkIndex( node );
+        return parents[node];
+    }
+
+    /**
+     * @return index of the first child or {@link #NO_NODE} if the node has no children
+     */
+    @Override
+    public int getFirstChild(int node)
+    {
+        checkIndex( node );
+        return firstChildren[node];
+    }
+
+    /**
+     * @return index of the next sibling or {@link #NO_NODE} if this is the parent's last child
+     */
+    @Override
+    public int getNextSibling(int node)
+    {
+        checkIndex( node );
+        return nextSiblings[node];
+    }
+
+    public int getSegmentIdOf(int node)
+    {
+        checkIndex( node );
+        return names[node];
+    }
+
+    /**
+     * @return the node's path segment, starting with a '/' (or empty for the root node)
+     */
+    @Override
+    public String getPathSegment(int node)
+    {
+        checkIndex( node );
+        return segments.get( names[node] );
+    }
+
+    @Override
+    public String getPath(int node)
+    {
+        checkIndex( node );
+        final Deque<String> path = new ArrayDeque<>();
+        for ( int current = node ; current != NO_NODE ; current = parents[current] ) {
+            path.addFirst( segments.get( names[current] ) );
+        }
+        return String.join( "", path );
+    }
+
+    @Override
+    public long getSizeInBytes(int node)
+    {
+        checkIndex( node );
+        return sizes[node];
+    }
+
+    public void setSizeInBytes(int node, long size)
+    {
+        checkIndex( node );
+        sizes[node] = size;
+    }
+
+    /**
+     * @return latest date as epoch millis or {@link #NO_DATE}
+     */
+    @Override
+    public long getLatestDateMillis(int node)
+    {
+        checkIndex( node );
+        return latestDates[node];
+    }
+
+    public void setLatestDateMillis(int node, long date)
+    {
+        checkIndex( node );
+        latestDates[node] = date;
+    }
+
+    /**
+     * @return when the folder itself was last modified as epoch millis or {@link #NO_DATE}
+     */
+    @Override
+    public long getLastModifiedMillis(int node)
+    {
+        checkIndex( node );
+        return lastModifiedDates[node];
+    }
+
+    public void setLastModifiedMillis(int node, long date)
+    {
+        checkIndex( node );
+        lastModifiedDates[node] = date;
+    }
+
+    /**
+     * @return sizes of the files directly inside a folder by date, <code>null</code> if there are none
+     */
+    public SizeHistogram getHistogram(int node)
+    {
+        checkIndex( node );
+        return histograms[node];
+    }
+
+    public void setHistogram(int node, SizeHistogram histogram)
+    {
+        checkIndex( node );
+        histograms[node] = histogram;
+    }
+
+    @Override
+    public boolean isUnexpanded(int node)
+    {
+        checkIndex( node );
+        return unexpanded.get( node );
+    }
+
+    public void setUnexpanded(int node, boolean value)
+    {
+        checkIndex( node );
+        unexpanded.set( node, value );
+    }
+
+    @Override
+    public long getOwnSizeBefore(int node, int day)
+    {
+        checkIndex( node );
+        if ( unexpanded.get( node ) )
+        {
+            // see SizeAndLatestDate#getOwnSizeBefore()
+            return latestDates[node] != NO_DATE && SizeHistogram.day( latestDates[node] ) < day ? sizes[node] : 0;
+        }
+        return histograms[node] == null ? 0 : histograms[node].getSizeBefore( day );
+    }
+
+    /**
+     * Adds a size to a node and updates its latest date.
+     *
+     * @param date epoch millis or {@link #NO_DATE}
+     */
+    public void merge(int node, long size, long date)
+    {
+        checkIndex( node );
+        sizes[node] += size;
+        if ( date > latestDates[node] ) {
+            latestDates[node] = date;
+        }
+    }
+
+    /**
+     * Adds the totals of all nodes to their parents.
+     *
+     * Only to be used on stores where each node so far only holds the sizes of the files
+     * directly contained in it. Since children always come after their parent, a single
+     * backwards pass over the arrays is enough.
+     */
+    public void sumUpChildren()
+    {
+        for ( int node = nodeCount - 1 ; node > 0 ; node-- )
+        {
+            final int parent = parents[node];
+            sizes[parent] += sizes[node];
+            if ( latestDates[node] > latestDates[parent] ) {
+                latestDates[parent] = latestDates[node];
+            }
+        }
+    }
+
+    /**
+     * Copies all nodes matching a filter.
+     *
+     * Children of nodes that don't match are skipped as well.
+     *
+     * @param filter filter, gets views on this store's nodes
+     * @return new store, holding only the root node if even that does not match
+     */
+    public NodeStore copy(Predicate<Node> filter)
+    {
+        final NodeStore result = new NodeStore( repository );
+        if ( ! filter.test( getRoot() ) ) {
+            return result;
+        }
+        final int[] segmentMapping = new int[ segments.size() ];
+        Arrays.fill( segmentMapping, -1 );
+        final Deque<int[]> queue = new ArrayDeque<>();
+        queue.add( new int[] { 0, 0 } );
+        while ( ! queue.isEmpty() )
+        {
+            final int[] pair = queue.removeFirst();
+            final int source = pair[0];
+            final int target = pair[1];
+            result.sizes[target] = sizes[source];
+            result.latestDates[target] = latestDates[source];
+            result.lastModifiedDates[target] = lastModifiedDates[source];
+            result.histograms[target] = histograms[source];
+            for ( int child = firstChildren[source] ; child != NO_NODE ; child = nextSiblings[child] )
+            {
+                if ( filter.test( new Node( this, child ) ) )
+                {
+                    final int name = names[child];
+                    if ( segmentMapping[name] == -1 ) {
+                        segmentMapping[name] = result.internSegment( segments.get( name ) );
+                    }
+                    queue.add( new int[] { child, result.addNode( target, segmentMapping[name] ) } );
+                }
+            }
+        }
+        return result;
+    }
+
+    private void checkIndex(int node)
+    {
+        if ( node < 0 || node >= nodeCount ) {
+            throw new IndexOutOfBoundsException( "Node index out of range: " + node );
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import de.engehausen.treemap.IWeightedTreeModel;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Treemap model reading straight from a {@link INodeTable}.
+ *
+ * Nodes are handed out as {@link INodeTable.Node} views created on demand, so the model itself only takes
+ * the weights of the nodes when filtering by date and nothing at all otherwise.
+ */
+public final class NodeTableModel implements IWeightedTreeModel<INodeTable.Node>
+{
+    private final INodeTable table;
+    /**
+     * Weights by node index, <code>null</code> to use the nodes' sizes.
+     */
+    private final long[] weights;
+
+    /**
+     * @param table table to show
+     * @param olderThanDay only count files last updated before this day (days since the epoch, UTC), {@link Integer#MAX_VALUE} to count all
+     */
+    public NodeTableModel(INodeTable table, int olderThanDay)
+    {
+        Validate.notNull( table, "table must not be null" );
+        this.table = table;
+        if ( olderThanDay == Integer.MAX_VALUE )
+        {
+            this.weights = null;
+            return;
+        }
+        // children come after their parents, so a single backwards pass sums up all folders
+        final long[] result = new long[ table.getNodeCount() ];
+        for ( int i = result.length - 1 ; i >= 0 ; i-- )
+        {
+            result[i] += table.getOwnSizeBefore( i, olderThanDay );
+            if ( i > 0 ) {
+                result[ table.getParent( i ) ] += result[i];
+            }
+        }
+        this.weights = result;
+    }
+
+    @Override
+    public long getWeight(INodeTable.Node node)
+    {
+        return weights == null ? table.getSizeInBytes( node.index ) : weights[ node.index ];
+    }
+
+    @Override
+    public Iterator<INodeTable.Node> getChildren(INodeTable.Node node)
+    {
+        return new Iterator<>()
+        {
+            private int next = table.getFirstChild( node.index );
+
+            @Override
+            public boolean hasNext()
+            {
+                return next != INodeTable.NO_NODE;
+            }
+
+            @Override
+            public INodeTable.Node next()
+            {
+                if ( next == INodeTable.NO_NODE ) {
+                    throw new NoSuchElementException();
+                }
+                final INodeTable.Node result = new INodeTable.Node( table, next );
+                next = table.getNextSibling( next );
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public INodeTable.Node getParent(INodeTable.Node node)
+    {
+        return node.getParent();
+    }
+
+    @Override
+    public INodeTable.Node getRoot()
+    {
+        return table.getRoot();
+    }
+
+    @Override
+    public boolean hasChildren(INodeTable.Node node)
+    {
+        return ! node.isLeaf();
+    }
+}
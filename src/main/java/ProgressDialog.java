@@ -14,7 +14,15 @@ public abstract class ProgressDialog extends JDialog
 
     public ProgressDialog(String title, JFrame owner)
     {
-        super(owner, title,true);
+        this(title, owner, true);
+    }
+
+    /**
+     * @param modal whether to block input to the owner while showing
+     */
+    public ProgressDialog(String title, JFrame owner, boolean modal)
+    {
+        super(owner, title, modal);
         this.cancelButton = new JButton("Cancel");
         this.cancelButton.addActionListener( ev ->
         {
@@ -0,0 +1,450 @@
+import org.apache.commons.lang3.Validate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk cache of HTTP response bodies, so that requests can be sent with <code>If-None-Match</code> /
+ * <code>If-Modified-Since</code> and a HTTP 304 response gets answered from disk.
+ *
+ * Each response is stored in a file of its own, named after a hash of its key:
+ * <pre>
+ * header  magic, version (ints), key, ETag, Last-Modified (modified UTF-8 strings, empty if missing)
+ * body    gzip-compressed response body
+ * </pre>
+ * Once all files together exceed the max. size, the least recently used ones get deleted. The order of use
+ * is kept in memory and restored from the files' modification times when the cache is opened.
+ *
+ * Thread-safe.
+ */
+public final class ResponseCache
+{
+    private static final int MAGIC = 0x41564843; // 'AVHC'
+    private static final int VERSION = 1;
+
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    public static final Path DEFAULT_DIR = Paths.get( System.getProperty( "user.home" ), ".artifactory-view", "http-cache" );
+
+    /**
+     * A cached response, must be closed.
+     */
+    public static final class Entry implements Closeable
+    {
+        /**
+         * ETag header of the response or <code>null</code>.
+         */
+        public final String etag;
+        /**
+         * Last-Modified header of the response or <code>null</code>.
+         */
+        public final String lastModified;
+        /**
+         * Uncompressed body.
+         */
+        public final InputStream body;
+
+        private Entry(String etag, String lastModified, InputStream body)
+        {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            body.close();
+        }
+    }
+
+    /**
+     * Copies a response body into the cache while it is being read.
+     *
+     * Closing the stream reads whatever is left of the body, so the cached copy is complete even if
+     * the reader stopped early. The copy only replaces the cached one on {@link #commit()}.
+     */
+    public final class Writer extends FilterInputStream
+    {
+        private final String fileName;
+        private final Path tmpFile;
+        private final OutputStream out;
+        private boolean failed;
+        private boolean closed;
+
+        private Writer(String fileName, Path tmpFile, OutputStream out, InputStream body)
+        {
+            super( body );
+            this.fileName = fileName;
+            this.tmpFile = tmpFile;
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final int result = super.read();
+            if ( result != -1 ) {
+                copy( new byte[] { (byte) result }, 0, 1 );
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            final int result = super.read( b, off, len );
+            if ( result > 0 ) {
+                copy( b, off, result );
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            // skipped bytes need to go into the cache as well
+            final byte[] buffer = new byte[ (int) Math.min( n, 8192 ) ];
+            final int result = read( buffer, 0, buffer.length );
+            return Math.max( result, 0 );
+        }
+
+        private void copy(byte[] b, int off, int len)
+        {
+            if ( failed ) {
+                return;
+            }
+            try
+            {
+                out.write( b, off, len );
+            }
+            catch (IOException e)
+            {
+                // the response is fine, it just doesn't get cached
+                System.err.println( "Failed to write to response cache: " + e.getMessage() );
+                failed = true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            try
+            {
+                final byte[] buffer = new byte[ 8192 ];
+                while ( ! failed && read( buffer, 0, buffer.length ) != -1 ) {
+                    // drain
+                }
+            }
+            catch (IOException e)
+            {
+                failed = true;
+            }
+            finally
+            {
+                super.close();
+            }
+        }
+
+        /**
+         * Stores the response body read, replacing the cached one.
+         */
+        public void commit()
+        {
+            try
+            {
+                close();
+                out.close();
+                if ( failed )
+                {
+                    Files.deleteIfExists( tmpFile );
+                    return;
+                }
+                final Path file = dir.resolve( fileName + ENTRY_SUFFIX );
+                Files.move( tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+                added( fileName, Files.size( file ) );
+            }
+            catch (IOException e)
+            {
+                System.err.println( "Failed to write to response cache: " + e.getMessage() );
+                abort();
+            }
+        }
+
+        /**
+         * Discards the response body read.
+         */
+        public void abort()
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                // nothing we can do
+            }
+            try
+            {
+                Files.deleteIfExists( tmpFile );
+            }
+            catch (IOException e)
+            {
+                System.err.println( "Failed to delete " + tmpFile + ": " + e.getMessage() );
+            }
+        }
+    }
+
+    private final Path dir;
+    private final long maxSizeInBytes;
+
+    /**
+     * Sizes of all entries by file name, least recently used first.
+     */
+    private final LinkedHashMap<String,Long> entries = new LinkedHashMap<>( 16, 0.75f, true );
+    private long sizeInBytes;
+
+    /**
+     * Opens a cache, creating its directory if needed.
+     *
+     * @param dir directory to store responses in
+     * @param maxSizeInBytes max. number of bytes to store
+     */
+    public ResponseCache(Path dir, long maxSizeInBytes) throws IOException
+    {
+        Validate.notNull( dir, "dir must not be null" );
+        Validate.isTrue( maxSizeInBytes > 0, "max. size must be > 0" );
+        this.dir = dir;
+        this.maxSizeInBytes = maxSizeInBytes;
+
+        Files.createDirectories( dir );
+        final List<Path> files = new ArrayList<>();
+        final Map<Path,BasicFileAttributes> attributes = new LinkedHashMap<>();
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( dir ) )
+        {
+            for ( Path file : stream )
+            {
+                final String name = file.getFileName().toString();
+                if ( name.endsWith( TMP_SUFFIX ) ) {
+                    // left over from a crash
+                    Files.deleteIfExists( file );
+                }
+                else if ( name.endsWith( ENTRY_SUFFIX ) )
+                {
+                    files.add( file );
+                    attributes.put( file, Files.readAttributes( file, BasicFileAttributes.class ) );
+                }
+            }
+        }
+        files.sort( Comparator.comparing( file -> attributes.get( file ).lastModifiedTime() ) );
+        synchronized (this)
+        {
+            for ( Path file : files )
+            {
+                final String name = file.getFileName().toString();
+                final long size = attributes.get( file ).size();
+                entries.put( name.substring( 0, name.length() - ENTRY_SUFFIX.length() ), size );
+                sizeInBytes += size;
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Looks up a cached response.
+     *
+     * @param key cache key, usually the URL
+     * @return response or <code>null</code> if none is cached
+     */
+    public Entry get(String key)
+    {
+        final String fileName = fileName( key );
+        synchronized (this)
+        {
+            if ( entries.get( fileName ) == null ) {
+                return null;
+            }
+        }
+        final Path file = dir.resolve( fileName + ENTRY_SUFFIX );
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ), 64*1024 ) );
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION || ! key.equals( in.readUTF() ) )
+            {
+                in.close();
+                return null;
+            }
+            final String etag = in.readUTF();
+            final String lastModified = in.readUTF();
+            final InputStream body = new GZIPInputStream( in, 64*1024 );
+            // remember the use across restarts
+            Files.setLastModifiedTime( file, FileTime.fromMillis( System.currentTimeMillis() ) );
+            return new Entry( etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified, body );
+        }
+        catch (IOException e)
+        {
+            // deleted or damaged
+            if ( in != null ) {
+                closeQuietly( in );
+            }
+            removed( fileName );
+            return null;
+        }
+    }
+
+    /**
+     * Starts caching a response body.
+     *
+     * @param key cache key, usually the URL
+     * @param etag ETag header of the response, may be <code>null</code>
+     * @param lastModified Last-Modified header of the response, may be <code>null</code>
+     * @param body response body
+     * @return stream to read the body through, <code>null</code> if the response can't be cached because
+     * it has no validators or the cache could not be written
+     */
+    public Writer store(String key, String etag, String lastModified, InputStream body)
+    {
+        if ( etag == null && lastModified == null ) {
+            return null;
+        }
+        final String fileName = fileName( key );
+        Path tmpFile = null;
+        try
+        {
+            tmpFile = Files.createTempFile( dir, fileName, TMP_SUFFIX );
+            final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( tmpFile ), 64*1024 ) );
+            try
+            {
+                out.writeInt( MAGIC );
+                out.writeInt( VERSION );
+                out.writeUTF( key );
+                out.writeUTF( etag == null ? "" : etag );
+                out.writeUTF( lastModified == null ? "" : lastModified );
+                return new Writer( fileName, tmpFile, new GZIPOutputStream( out, 64*1024 ), body );
+            }
+            catch (IOException e)
+            {
+                closeQuietly( out );
+                throw e;
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println( "Failed to write to response cache: " + e.getMessage() );
+            if ( tmpFile != null )
+            {
+                try
+                {
+                    Files.deleteIfExists( tmpFile );
+                }
+                catch (IOException e2)
+                {
+                    // nothing we can do
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return number of bytes stored
+     */
+    public synchronized long getSizeInBytes()
+    {
+        return sizeInBytes;
+    }
+
+    private synchronized void added(String fileName, long size)
+    {
+        final Long previous = entries.put( fileName, size );
+        sizeInBytes += size - ( previous == null ? 0 : previous );
+        evict();
+    }
+
+    private synchronized void removed(String fileName)
+    {
+        final Long previous = entries.remove( fileName );
+        if ( previous != null ) {
+            sizeInBytes -= previous;
+        }
+    }
+
+    private void evict()
+    {
+        for ( Iterator<Map.Entry<String,Long>> it = entries.entrySet().iterator() ; sizeInBytes > maxSizeInBytes && it.hasNext() ; )
+        {
+            final Map.Entry<String,Long> eldest = it.next();
+            it.remove();
+            sizeInBytes -= eldest.getValue();
+            final Path file = dir.resolve( eldest.getKey() + ENTRY_SUFFIX );
+            try
+            {
+                Files.deleteIfExists( file );
+            }
+            catch (IOException e)
+            {
+                System.err.println( "Failed to delete " + file + ": " + e.getMessage() );
+            }
+        }
+    }
+
+    private static String fileName(String key)
+    {
+        try
+        {
+            final byte[] hash = MessageDigest.getInstance( "SHA-256" ).digest( key.getBytes( StandardCharsets.UTF_8 ) );
+            final StringBuilder result = new StringBuilder( 32 );
+            for ( int i = 0 ; i < 16 ; i++ ) {
+                result.append( Character.forDigit( ( hash[i] >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( hash[i] & 0xf, 16 ) );
+            }
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        try
+        {
+            closeable.close();
+        }
+        catch (IOException e)
+        {
+            // nothing we can do
+        }
+    }
+}
@@ -0,0 +1,599 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MXBean;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Request and scan metrics of one {@link ArtifactoryClient}.
+ *
+ * Counters are {@link LongAdder}s and latencies go into fixed-size lock-free histograms, so recording costs
+ * a few atomic increments per request. Metrics can be published as MXBeans and logged periodically.
+ * Latencies are measured from sending a request until its response headers arrive, so they show how fast
+ * the server answers; the queue length and the number of busy parser threads show whether the client keeps up.
+ */
+public final class ScanMetrics
+{
+    private static final String DOMAIN = "artifactory-view";
+
+    /**
+     * Kinds of requests sent to the server.
+     */
+    public enum Endpoint
+    {
+        REPOSITORIES,
+        FOLDER_LISTING,
+        FILE_INFO,
+        AQL_SEARCH,
+        DEEP_LISTING
+    }
+
+    @MXBean
+    public interface IEndpointMetrics
+    {
+        long getRequests();
+
+        long getFailedRequests();
+
+        /**
+         * @return bytes of response bodies read (after decompression)
+         */
+        long getBytesRead();
+
+        double getLatencyP50Millis();
+
+        double getLatencyP95Millis();
+
+        double getLatencyP99Millis();
+
+        double getLatencyMaxMillis();
+
+        /**
+         * @return requests sent again after failing
+         */
+        long getRetries();
+
+        /**
+         * @return duplicates sent for slow requests
+         */
+        long getHedgedRequests();
+
+        /**
+         * @return duplicates that responded before the original request
+         */
+        long getHedgesWon();
+
+        /**
+         * @return responses answered from the response cache because the server reported them unchanged
+         */
+        long getCacheHits();
+    }
+
+    @MXBean
+    public interface IClientMetrics
+    {
+        long getRequests();
+
+        long getBytesRead();
+
+        /**
+         * @return number of failed requests by HTTP status code, "IO" for requests that got no response
+         */
+        Map<String,Long> getErrorsByStatus();
+
+        /**
+         * @return requests waiting for the concurrency limiter
+         */
+        int getQueuedRequests();
+
+        int getRequestsInFlight();
+
+        int getConcurrencyLimit();
+
+        /**
+         * @return threads busy parsing responses
+         */
+        int getActiveParsers();
+
+        long getItemsScanned();
+
+        long getFoldersCompleted();
+
+        void reset();
+    }
+
+    /**
+     * Latency histogram with 8 linear sub-buckets per power of two,
+     * so percentiles are accurate to within 12.5%.
+     */
+    private static final class LatencyHistogram
+    {
+        private static final int SUB_BUCKETS = 8;
+        private static final int SUB_BUCKET_BITS = 3;
+
+        private final AtomicLongArray counts = new AtomicLongArray( SUB_BUCKETS + ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKETS );
+        private final LongAccumulator max = new LongAccumulator( Math::max, 0 );
+
+        public void record(long micros)
+        {
+            final long value = Math.max( 0, micros );
+            counts.incrementAndGet( index( value ) );
+            max.accumulate( value );
+        }
+
+        private static int index(long value)
+        {
+            if ( value < SUB_BUCKETS ) {
+                return (int) value;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros( value );
+            final int subBucket = (int) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+            return SUB_BUCKETS + ( exponent - SUB_BUCKET_BITS ) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given index
+         */
+        private static long upperBound(int index)
+        {
+            if ( index < SUB_BUCKETS ) {
+                return index;
+            }
+            final int shift = ( index - SUB_BUCKETS ) / SUB_BUCKETS;
+            final int subBucket = ( index - SUB_BUCKETS ) % SUB_BUCKETS;
+            return ( (long) ( SUB_BUCKETS + subBucket + 1 ) << shift ) - 1;
+        }
+
+        /**
+         * @param percentile between 0 and 1
+         * @return latency in microseconds
+         */
+        public long getPercentile(double percentile)
+        {
+            long total = 0;
+            for ( int i = 0 ; i < counts.length() ; i++ ) {
+                total += counts.get( i );
+            }
+            if ( total == 0 ) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil( percentile * total );
+            long seen = 0;
+            for ( int i = 0 ; i < counts.length() ; i++ )
+            {
+                seen += counts.get( i );
+                if ( seen >= rank ) {
+                    return Math.min( upperBound( i ), getMax() );
+                }
+            }
+            return getMax();
+        }
+
+        public long getMax()
+        {
+            return max.get();
+        }
+
+        public void reset()
+        {
+            for ( int i = 0 ; i < counts.length() ; i++ ) {
+                counts.set( i, 0 );
+            }
+            max.reset();
+        }
+    }
+
+    private static final class EndpointMetrics implements IEndpointMetrics
+    {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failedRequests = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder hedgedRequests = new LongAdder();
+        private final LongAdder hedgesWon = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        @Override
+        public long getRequests()
+        {
+            return requests.sum();
+        }
+
+        @Override
+        public long getFailedRequests()
+        {
+            return failedRequests.sum();
+        }
+
+        @Override
+        public long getBytesRead()
+        {
+            return bytesRead.sum();
+        }
+
+        @Override
+        public double getLatencyP50Millis()
+        {
+            return latency.getPercentile( 0.5 ) / 1000d;
+        }
+
+        @Override
+        public double getLatencyP95Millis()
+        {
+            return latency.getPercentile( 0.95 ) / 1000d;
+        }
+
+        @Override
+        public double getLatencyP99Millis()
+        {
+            return latency.getPercentile( 0.99 ) / 1000d;
+        }
+
+        @Override
+        public double getLatencyMaxMillis()
+        {
+            return latency.getMax() / 1000d;
+        }
+
+        @Override
+        public long getRetries()
+        {
+            return retries.sum();
+        }
+
+        @Override
+        public long getHedgedRequests()
+        {
+            return hedgedRequests.sum();
+        }
+
+        @Override
+        public long getHedgesWon()
+        {
+            return hedgesWon.sum();
+        }
+
+        @Override
+        public long getCacheHits()
+        {
+            return cacheHits.sum();
+        }
+
+        public void reset()
+        {
+            requests.reset();
+            failedRequests.reset();
+            bytesRead.reset();
+            retries.reset();
+            hedgedRequests.reset();
+            hedgesWon.reset();
+            cacheHits.reset();
+            latency.reset();
+        }
+    }
+
+    private final class ClientMetrics implements IClientMetrics
+    {
+        @Override
+        public long getRequests()
+        {
+            return endpoints.values().stream().mapToLong( EndpointMetrics::getRequests ).sum();
+        }
+
+        @Override
+        public long getBytesRead()
+        {
+            return endpoints.values().stream().mapToLong( EndpointMetrics::getBytesRead ).sum();
+        }
+
+        @Override
+        public Map<String,Long> getErrorsByStatus()
+        {
+            final Map<String,Long> result = new TreeMap<>();
+            errorsByStatus.forEach( (status, count) -> result.put( status, count.sum() ) );
+            return result;
+        }
+
+        @Override
+        public int getQueuedRequests()
+        {
+            return queuedRequests.getAsInt();
+        }
+
+        @Override
+        public int getRequestsInFlight()
+        {
+            return requestsInFlight.getAsInt();
+        }
+
+        @Override
+        public int getConcurrencyLimit()
+        {
+            return concurrencyLimit.getAsInt();
+        }
+
+        @Override
+        public int getActiveParsers()
+        {
+            return activeParsers.getAsInt();
+        }
+
+        @Override
+        public long getItemsScanned()
+        {
+            return itemsScanned.sum();
+        }
+
+        @Override
+        public long getFoldersCompleted()
+        {
+            return foldersCompleted.sum();
+        }
+
+        @Override
+        public void reset()
+        {
+            endpoints.values().forEach( EndpointMetrics::reset );
+            errorsByStatus.clear();
+            itemsScanned.reset();
+            foldersCompleted.reset();
+        }
+    }
+
+    private final Map<Endpoint,EndpointMetrics> endpoints = new EnumMap<>( Endpoint.class );
+    private final Map<String,LongAdder> errorsByStatus = new ConcurrentHashMap<>();
+    private final LongAdder itemsScanned = new LongAdder();
+    private final LongAdder foldersCompleted = new LongAdder();
+    private final ClientMetrics clientMetrics = new ClientMetrics();
+
+    private final IntSupplier queuedRequests;
+    private final IntSupplier requestsInFlight;
+    private final IntSupplier concurrencyLimit;
+    private final IntSupplier activeParsers;
+
+    private ScheduledExecutorService logExecutor;
+    private ScheduledFuture<?> logTask;
+
+    /**
+     * @param queuedRequests supplies the number of requests waiting for a permit
+     * @param requestsInFlight supplies the number of requests holding a permit
+     * @param concurrencyLimit supplies the current number of permits
+     * @param activeParsers supplies the number of threads busy parsing responses
+     */
+    public ScanMetrics(IntSupplier queuedRequests, IntSupplier requestsInFlight, IntSupplier concurrencyLimit, IntSupplier activeParsers)
+    {
+        for ( Endpoint endpoint : Endpoint.values() ) {
+            endpoints.put( endpoint, new EndpointMetrics() );
+        }
+        this.queuedRequests = queuedRequests;
+        this.requestsInFlight = requestsInFlight;
+        this.concurrencyLimit = concurrencyLimit;
+        this.activeParsers = activeParsers;
+    }
+
+    /**
+     * Records a response.
+     *
+     * @param latencyNanos time until the response headers were received
+     * @param statusCode HTTP status code, anything but 200 and 304 (not modified) counts as failure
+     */
+    public void responseReceived(Endpoint endpoint, long latencyNanos, int statusCode)
+    {
+        final EndpointMetrics metrics = endpoints.get( endpoint );
+        metrics.requests.increment();
+        metrics.latency.record( latencyNanos / 1000 );
+        if ( statusCode != 200 && statusCode != 304 )
+        {
+            metrics.failedRequests.increment();
+            errorsByStatus.computeIfAbsent( Integer.toString( statusCode ), x -> new LongAdder() ).increment();
+        }
+    }
+
+    /**
+     * Records a request that failed without a response.
+     */
+    public void requestFailed(Endpoint endpoint)
+    {
+        final EndpointMetrics metrics = endpoints.get( endpoint );
+        metrics.requests.increment();
+        metrics.failedRequests.increment();
+        errorsByStatus.computeIfAbsent( "IO", x -> new LongAdder() ).increment();
+    }
+
+    /**
+     * Records a request that is sent again after failing.
+     */
+    public void requestRetried(Endpoint endpoint)
+    {
+        endpoints.get( endpoint ).retries.increment();
+    }
+
+    /**
+     * Records a duplicate sent for a slow request.
+     */
+    public void requestHedged(Endpoint endpoint)
+    {
+        endpoints.get( endpoint ).hedgedRequests.increment();
+    }
+
+    /**
+     * Records a duplicate that responded before the request it duplicates.
+     */
+    public void hedgeWon(Endpoint endpoint)
+    {
+        endpoints.get( endpoint ).hedgesWon.increment();
+    }
+
+    /**
+     * Records a response answered from the response cache.
+     */
+    public void cacheHit(Endpoint endpoint)
+    {
+        endpoints.get( endpoint ).cacheHits.increment();
+    }
+
+    /**
+     * Wraps a response body so that the bytes read from it get counted.
+     */
+    public InputStream countBytes(Endpoint endpoint, InputStream body)
+    {
+        final LongAdder bytesRead = endpoints.get( endpoint ).bytesRead;
+        return new FilterInputStream( body )
+        {
+            @Override
+            public int read() throws IOException
+            {
+                final int result = super.read();
+                if ( result != -1 ) {
+                    bytesRead.increment();
+                }
+                return result;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                final int result = super.read( b, off, len );
+                if ( result > 0 ) {
+                    bytesRead.add( result );
+                }
+                return result;
+            }
+        };
+    }
+
+    public void itemScanned()
+    {
+        itemsScanned.increment();
+    }
+
+    public void folderCompleted()
+    {
+        foldersCompleted.increment();
+    }
+
+    public IEndpointMetrics getEndpointMetrics(Endpoint endpoint)
+    {
+        return endpoints.get( endpoint );
+    }
+
+    public IClientMetrics getClientMetrics()
+    {
+        return clientMetrics;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing metrics registered before.
+     */
+    public void registerMBeans()
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            register( server, new ObjectName( DOMAIN + ":type=Client" ), clientMetrics );
+            for ( Endpoint endpoint : Endpoint.values() ) {
+                register( server, new ObjectName( DOMAIN + ":type=Endpoint,name=" + endpoint ), endpoints.get( endpoint ) );
+            }
+        }
+        catch (JMException e)
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private static void register(MBeanServer server, ObjectName name, Object mbean) throws JMException
+    {
+        if ( server.isRegistered( name ) ) {
+            server.unregisterMBean( name );
+        }
+        server.registerMBean( mbean, name );
+    }
+
+    /**
+     * Starts logging a line with request rates, latencies and errors to standard error.
+     *
+     * @param intervalSeconds interval, 0 stops logging
+     */
+    public synchronized void startLogging(int intervalSeconds)
+    {
+        if ( logTask != null )
+        {
+            logTask.cancel( false );
+            logTask = null;
+        }
+        if ( intervalSeconds <= 0 ) {
+            return;
+        }
+        if ( logExecutor == null )
+        {
+            logExecutor = Executors.newSingleThreadScheduledExecutor( r ->
+            {
+                final Thread t = new Thread( r, "metrics-log" );
+                t.setDaemon( true );
+                return t;
+            });
+        }
+        final long[] last = { clientMetrics.getRequests(), clientMetrics.getBytesRead(), System.nanoTime() };
+        logTask = logExecutor.scheduleAtFixedRate( () ->
+        {
+            final long requests = clientMetrics.getRequests();
+            final long bytes = clientMetrics.getBytesRead();
+            final long now = System.nanoTime();
+            final double seconds = Math.max( 1, now - last[2] ) / 1_000_000_000d;
+            System.err.println( String.format( "metrics: %.1f req/s, %s/s read, in flight %d/%d, queued %d, parsers busy %d | %s",
+                ( requests - last[0] ) / seconds, DataVolume.toPrettyString( (long) ( ( bytes - last[1] ) / seconds ) ),
+                clientMetrics.getRequestsInFlight(), clientMetrics.getConcurrencyLimit(), clientMetrics.getQueuedRequests(),
+                clientMetrics.getActiveParsers(), format() ) );
+            last[0] = requests;
+            last[1] = bytes;
+            last[2] = now;
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS );
+    }
+
+    /**
+     * @return totals, latencies by endpoint and errors as a single line
+     */
+    public String format()
+    {
+        final StringBuilder result = new StringBuilder( String.format( "%d requests, %s read, %d items, %d folders",
+            clientMetrics.getRequests(), DataVolume.toPrettyString( clientMetrics.getBytesRead() ),
+            clientMetrics.getItemsScanned(), clientMetrics.getFoldersCompleted() ) );
+        endpoints.forEach( (endpoint, metrics) ->
+        {
+            if ( metrics.getRequests() > 0 )
+            {
+                result.append( String.format( " | %s n=%d p50=%.1fms p99=%.1fms max=%.1fms", endpoint, metrics.getRequests(),
+                    metrics.getLatencyP50Millis(), metrics.getLatencyP99Millis(), metrics.getLatencyMaxMillis() ) );
+                if ( metrics.getRetries() > 0 || metrics.getHedgedRequests() > 0 )
+                {
+                    result.append( String.format( " retries=%d hedged=%d (%d won)", metrics.getRetries(),
+                        metrics.getHedgedRequests(), metrics.getHedgesWon() ) );
+                }
+                if ( metrics.getCacheHits() > 0 ) {
+                    result.append( String.format( " cached=%d", metrics.getCacheHits() ) );
+                }
+            }
+        });
+        final Map<String,Long> errors = clientMetrics.getErrorsByStatus();
+        if ( ! errors.isEmpty() ) {
+            result.append( " | errors " ).append( errors );
+        }
+        return result.toString();
+    }
+}
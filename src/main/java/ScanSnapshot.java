@@ -0,0 +1,482 @@
+import org.apache.commons.lang3.Validate;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary snapshot of a scanned repository, read through a memory-mapped file.
+ *
+ * Layout (big endian):
+ * <pre>
+ * header      magic, version, node count, string count, repo ID string, repo type string, string table offset, snapshot time,
+ *             histogram table offset
+ * node table  one fixed-size record per node, root first and every node after its parent:
+ *             parent, first child, next sibling, name string (ints, -1 if none), size in bytes, latest date and
+ *             folder modification date as epoch millis (longs)
+ * strings     (string count + 1) int offsets relative to the end of the offset table, followed by the UTF-8 bytes
+ * histograms  (node count + 1) int entry indices, followed by the entries of all nodes' size histograms
+ *             (day as int, size as long)
+ * </pre>
+ * Path segments are stored once no matter how many nodes use them. Nodes are looked up by index
+ * straight from the mapped file, nothing gets deserialized up front: the treemap shows a snapshot
+ * as an {@link INodeTable}, reading only the nodes it lays out.
+ *
+ * A mapped file can't be replaced or deleted on all platforms until the mapping has been garbage collected,
+ * so snapshots never get overwritten: each write creates a new generation <code>&lt;file&gt;.&lt;n&gt;</code>,
+ * {@link #open(Path)} maps the latest one and older generations get deleted once they are no longer mapped.
+ */
+public final class ScanSnapshot implements INodeTable
+{
+    private static final int MAGIC = 0x4156534e; // 'AVSN'
+    private static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 48;
+    private static final int HISTOGRAM_ENTRY_SIZE = 12;
+    private static final int NODE_SIZE = 40;
+
+    private static final Path SNAPSHOT_DIR = Paths.get( System.getProperty( "user.home" ), ".artifactory-view", "snapshots" );
+
+    private final MappedByteBuffer buffer;
+    private final int nodeCount;
+    private final int stringCount;
+    private final int stringOffsets;
+    private final int stringData;
+    private final int histogramOffsets;
+    private final int histogramData;
+    private final ArtifactoryClient.Repository repository;
+    private final long snapshotTime;
+
+    private ScanSnapshot(MappedByteBuffer buffer) throws IOException
+    {
+        this.buffer = buffer;
+        if ( buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != VERSION ) {
+            throw new IOException("Not a snapshot file or unsupported version");
+        }
+        this.nodeCount = buffer.getInt( 8 );
+        this.stringCount = buffer.getInt( 12 );
+        final int repoIdString = buffer.getInt( 16 );
+        final int repoTypeString = buffer.getInt( 20 );
+        this.stringOffsets = (int) buffer.getLong( 24 );
+        this.stringData = stringOffsets + ( stringCount + 1 ) * 4;
+        this.snapshotTime = buffer.getLong( 32 );
+        this.histogramOffsets = (int) buffer.getLong( 40 );
+        this.histogramData = histogramOffsets + ( nodeCount + 1 ) * 4;
+        this.repository = new ArtifactoryClient.Repository( getString( repoIdString ), getString( repoTypeString ) );
+    }
+
+    /**
+     * Returns the file the snapshot of a repository gets stored in.
+     *
+     * @param apiUrl API URL of the Artifactory server the repository lives on
+     * @param repoId repository
+     * @return file, see {@link #exists(Path)}
+     */
+    public static Path getSnapshotFile(String apiUrl, String repoId)
+    {
+        return SNAPSHOT_DIR.resolve( Integer.toHexString( apiUrl.hashCode() ) + "-" + repoId.replaceAll( "[^a-zA-Z0-9._-]", "_" ) + ".snapshot" );
+    }
+
+    /**
+     * @param file snapshot file as passed to {@link #write(SizeAndLatestDate, ArtifactoryClient.Repository, Path)}
+     * @return whether a snapshot has been written to the file
+     */
+    public static boolean exists(Path file) throws IOException
+    {
+        return latestGeneration( file ) != -1;
+    }
+
+    /**
+     * Maps the latest snapshot written to a file into memory.
+     *
+     * @param file snapshot file as passed to {@link #write(SizeAndLatestDate, ArtifactoryClient.Repository, Path)}
+     * @throws NoSuchFileException if no snapshot has been written to the file
+     */
+    public static ScanSnapshot open(Path file) throws IOException
+    {
+        final long generation = latestGeneration( file );
+        if ( generation == -1 ) {
+            throw new NoSuchFileException( file.toString() );
+        }
+        try ( FileChannel channel = FileChannel.open( generationFile( file, generation ), StandardOpenOption.READ ) )
+        {
+            // the mapping stays valid after the channel has been closed
+            return new ScanSnapshot( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ) );
+        }
+    }
+
+    /**
+     * Writes a snapshot of a scanned tree.
+     *
+     * Readers never see a partially written snapshot.
+     */
+    public static void write(SizeAndLatestDate root, ArtifactoryClient.Repository repository, Path file) throws IOException
+    {
+        Validate.notNull( root, "root must not be null" );
+        Validate.notNull( repository, "repository must not be null" );
+        write( NodeStore.of( repository, root ), file );
+    }
+
+    /**
+     * Writes a snapshot of a node store.
+     *
+     * The store's columns and segment table get written as they are. Readers never see a partially written snapshot.
+     */
+    public static void write(NodeStore store, Path file) throws IOException
+    {
+        Validate.notNull( store, "store must not be null" );
+
+        final ArtifactoryClient.Repository repository = store.getRepository();
+        final int nodeCount = store.getNodeCount();
+        final List<String> strings = new ArrayList<>();
+        for ( int i = 0, count = store.getSegmentCount() ; i < count ; i++ ) {
+            strings.add( store.getSegment( i ) );
+        }
+        final int repoIdString = indexOf( repository.repoId, strings );
+        final int repoTypeString = indexOf( repository.getType(), strings );
+
+        final List<byte[]> bytes = new ArrayList<>( strings.size() );
+        long stringBytes = 0;
+        for ( String string : strings )
+        {
+            final byte[] encoded = string.getBytes( StandardCharsets.UTF_8 );
+            bytes.add( encoded );
+            stringBytes += encoded.length;
+        }
+        long histogramEntries = 0;
+        for ( int i = 0 ; i < nodeCount ; i++ )
+        {
+            final SizeHistogram histogram = store.getHistogram( i );
+            histogramEntries += histogram == null ? 0 : histogram.getEntryCount();
+        }
+
+        final long stringTableOffset = HEADER_SIZE + (long) nodeCount * NODE_SIZE;
+        final long histogramTableOffset = stringTableOffset + ( strings.size() + 1 ) * 4L + stringBytes;
+        final long fileSize = histogramTableOffset + ( nodeCount + 1 ) * 4L + histogramEntries * HISTOGRAM_ENTRY_SIZE;
+        Validate.isTrue( fileSize < Integer.MAX_VALUE, "Too many nodes for a snapshot" );
+
+        Files.createDirectories( file.toAbsolutePath().getParent() );
+        final Path tmpFile = file.resolveSibling( file.getFileName() + ".tmp" );
+        try ( OutputStream out = Files.newOutputStream( tmpFile ) )
+        {
+            final DataOutputStream data = new DataOutputStream( new BufferedOutputStream( out, 64*1024 ) );
+
+            data.writeInt( MAGIC );
+            data.writeInt( VERSION );
+            data.writeInt( nodeCount );
+            data.writeInt( strings.size() );
+            data.writeInt( repoIdString );
+            data.writeInt( repoTypeString );
+            data.writeLong( stringTableOffset );
+            data.writeLong( System.currentTimeMillis() );
+            data.writeLong( histogramTableOffset );
+
+            for ( int i = 0 ; i < nodeCount ; i++ )
+            {
+                data.writeInt( store.getParent( i ) );
+                data.writeInt( store.getFirstChild( i ) );
+                data.writeInt( store.getNextSibling( i ) );
+                data.writeInt( store.getSegmentIdOf( i ) );
+                data.writeLong( store.getSizeInBytes( i ) );
+                data.writeLong( store.getLatestDateMillis( i ) );
+                data.writeLong( store.getLastModifiedMillis( i ) );
+            }
+
+            int offset = 0;
+            for ( byte[] string : bytes )
+            {
+                data.writeInt( offset );
+                offset += string.length;
+            }
+            data.writeInt( offset );
+            for ( byte[] string : bytes ) {
+                data.write( string );
+            }
+
+            int entry = 0;
+            for ( int i = 0 ; i < nodeCount ; i++ )
+            {
+                final SizeHistogram histogram = store.getHistogram( i );
+                data.writeInt( entry );
+                entry += histogram == null ? 0 : histogram.getEntryCount();
+            }
+            data.writeInt( entry );
+            for ( int node = 0 ; node < nodeCount ; node++ )
+            {
+                final SizeHistogram histogram = store.getHistogram( node );
+                for ( int i = 0, count = histogram == null ? 0 : histogram.getEntryCount() ; i < count ; i++ )
+                {
+                    data.writeInt( histogram.getDay( i ) );
+                    data.writeLong( histogram.getSize( i ) );
+                }
+            }
+            data.flush();
+        }
+        final long generation = Math.max( latestGeneration( file ) + 1, System.currentTimeMillis() );
+        Files.move( tmpFile, generationFile( file, generation ), StandardCopyOption.ATOMIC_MOVE );
+        deleteOlderGenerations( file, generation );
+    }
+
+    private static Path generationFile(Path file, long generation)
+    {
+        return file.resolveSibling( file.getFileName() + "." + generation );
+    }
+
+    /**
+     * @return latest generation written to a snapshot file or -1 if there is none
+     */
+    private static long latestGeneration(Path file) throws IOException
+    {
+        long result = -1;
+        for ( long generation : generations( file ) ) {
+            result = Math.max( result, generation );
+        }
+        return result;
+    }
+
+    private static List<Long> generations(Path file) throws IOException
+    {
+        final List<Long> result = new ArrayList<>();
+        final Path dir = file.toAbsolutePath().getParent();
+        if ( ! Files.isDirectory( dir ) ) {
+            return result;
+        }
+        final String prefix = file.getFileName() + ".";
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( dir ) )
+        {
+            for ( Path candidate : stream )
+            {
+                final String name = candidate.getFileName().toString();
+                if ( name.startsWith( prefix ) && name.length() > prefix.length() && name.substring( prefix.length() ).chars().allMatch( Character::isDigit ) ) {
+                    result.add( Long.parseLong( name.substring( prefix.length() ) ) );
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the generations older than the given one, keeping those that are still mapped.
+     */
+    private static void deleteOlderGenerations(Path file, long latest) throws IOException
+    {
+        for ( long generation : generations( file ) )
+        {
+            if ( generation < latest )
+            {
+                try
+                {
+                    Files.deleteIfExists( generationFile( file, generation ) );
+                }
+                catch (IOException e)
+                {
+                    // still mapped, gets deleted by the next write
+                }
+            }
+        }
+    }
+
+    private static int indexOf(String s, List<String> strings)
+    {
+        int index = strings.indexOf( s );
+        if ( index == -1 )
+        {
+            strings.add( s );
+            index = strings.size() - 1;
+        }
+        return index;
+    }
+
+    @Override
+    public ArtifactoryClient.Repository getRepository()
+    {
+        return repository;
+    }
+
+    /**
+     * @return time the snapshot was taken
+     */
+    public ZonedDateTime getSnapshotTime()
+    {
+        return ZonedDateTime.ofInstant( Instant.ofEpochMilli( snapshotTime ), ZoneId.systemDefault() );
+    }
+
+    @Override
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    /**
+     * @return index of the parent node or -1 for the root node (index 0)
+     */
+    @Override
+    public int getParent(int node)
+    {
+        return buffer.getInt( nodeOffset( node ) );
+    }
+
+    /**
+     * @return index of the first child or -1 if the node has no children
+     */
+    @Override
+    public int getFirstChild(int node)
+    {
+        return buffer.getInt( nodeOffset( node ) + 4 );
+    }
+
+    /**
+     * @return index of the next sibling or -1 if this is the parent's last child
+     */
+    @Override
+    public int getNextSibling(int node)
+    {
+        return buffer.getInt( nodeOffset( node ) + 8 );
+    }
+
+    /**
+     * @return the node's path segment, starting with a '/' (or empty for the root node)
+     */
+    @Override
+    public String getPathSegment(int node)
+    {
+        return getString( buffer.getInt( nodeOffset( node ) + 12 ) );
+    }
+
+    @Override
+    public long getSizeInBytes(int node)
+    {
+        return buffer.getLong( nodeOffset( node ) + 16 );
+    }
+
+    /**
+     * @return latest date as epoch millis or {@link Long#MIN_VALUE} if the node has none
+     */
+    @Override
+    public long getLatestDateMillis(int node)
+    {
+        return buffer.getLong( nodeOffset( node ) + 24 );
+    }
+
+    /**
+     * @return when the folder itself was last modified as epoch millis or {@link Long#MIN_VALUE} if unknown
+     */
+    @Override
+    public long getLastModifiedMillis(int node)
+    {
+        return buffer.getLong( nodeOffset( node ) + 32 );
+    }
+
+    /**
+     * @return sizes of the files directly inside a folder by date, <code>null</code> if there are none
+     */
+    public SizeHistogram getHistogram(int node)
+    {
+        nodeOffset( node );
+        final int start = buffer.getInt( histogramOffsets + node * 4 );
+        final int end = buffer.getInt( histogramOffsets + ( node + 1 ) * 4 );
+        if ( start == end ) {
+            return null;
+        }
+        final SizeHistogram result = new SizeHistogram();
+        for ( int entry = start ; entry < end ; entry++ )
+        {
+            final int offset = histogramData + entry * HISTOGRAM_ENTRY_SIZE;
+            result.addDay( buffer.getInt( offset ), buffer.getLong( offset + 4 ) );
+        }
+        return result;
+    }
+
+    /**
+     * Snapshots are only written for completely scanned trees.
+     */
+    @Override
+    public boolean isUnexpanded(int node)
+    {
+        nodeOffset( node );
+        return false;
+    }
+
+    @Override
+    public long getOwnSizeBefore(int node, int day)
+    {
+        nodeOffset( node );
+        final int start = buffer.getInt( histogramOffsets + node * 4 );
+        final int end = buffer.getInt( histogramOffsets + ( node + 1 ) * 4 );
+        long result = 0;
+        // entries are sorted by day
+        for ( int entry = start ; entry < end ; entry++ )
+        {
+            final int offset = histogramData + entry * HISTOGRAM_ENTRY_SIZE;
+            if ( buffer.getInt( offset ) >= day ) {
+                break;
+            }
+            result += buffer.getLong( offset + 4 );
+        }
+        return result;
+    }
+
+    private int nodeOffset(int node)
+    {
+        if ( node < 0 || node >= nodeCount ) {
+            throw new IndexOutOfBoundsException( "Node index out of range: " + node );
+        }
+        return HEADER_SIZE + node * NODE_SIZE;
+    }
+
+    private String getString(int id)
+    {
+        final int start = buffer.getInt( stringOffsets + id * 4 );
+        final int end = buffer.getInt( stringOffsets + ( id + 1 ) * 4 );
+        final byte[] bytes = new byte[ end - start ];
+        buffer.duplicate().position( stringData + start ).get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Creates a tree of {@link SizeAndLatestDate} nodes from this snapshot.
+     *
+     * Only needed to rescan a repository on top of a snapshot, showing it doesn't need any objects.
+     *
+     * @return root node
+     */
+    public SizeAndLatestDate toTree()
+    {
+        final SizeAndLatestDate[] nodes = new SizeAndLatestDate[ nodeCount ];
+        final String[] segments = new String[ stringCount ];
+        nodes[0] = new SizeAndLatestDate( repository, "" );
+        for ( int i = 0 ; i < nodeCount ; i++ )
+        {
+            final int offset = nodeOffset( i );
+            if ( i > 0 )
+            {
+                final int name = buffer.getInt( offset + 12 );
+                if ( segments[ name ] == null ) {
+                    segments[ name ] = getString( name );
+                }
+                nodes[i] = new SizeAndLatestDate( nodes[ buffer.getInt( offset ) ], segments[ name ] );
+            }
+            nodes[i].sizeInBytes = buffer.getLong( offset + 16 );
+            nodes[i].latestDate = buffer.getLong( offset + 24 );
+            nodes[i].lastModified = buffer.getLong( offset + 32 );
+            nodes[i].histogram = getHistogram( i );
+        }
+        return nodes[0];
+    }
+}
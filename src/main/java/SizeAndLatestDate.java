@@ -1,26 +1,77 @@
 import org.apache.commons.lang3.Validate;
 
-import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 public final class SizeAndLatestDate
 {
+    /**
+     * Orders nodes by path, comparing segment by segment (ignoring case).
+     */
+    public static final Comparator<SizeAndLatestDate> PATH_ORDER = SizeAndLatestDate::comparePaths;
+
     public final SizeAndLatestDate parent;
-    public final List<SizeAndLatestDate> children = new ArrayList<>();
+    /**
+     * Child nodes. Children may get registered from several threads while a tree is being built.
+     */
+    public final List<SizeAndLatestDate> children = Collections.synchronizedList( new ArrayList<>() );
     private final ArtifactoryClient.Repository repo;
+    /**
+     * Path segments like version numbers or file names repeat all over a repository, all nodes of
+     * a tree share this table to keep only one instance of each. Goes away with the tree.
+     */
+    private final ConcurrentHashMap<String,String> segments;
     private final String path;
-    public long sizeInBytes;
-    public ZonedDateTime latestDate;
+    private final int depth;
+    /**
+     * Hash code of the full path, derived from the parent's without building the path.
+     */
+    private final int pathHash;
+    private String fullPath;
+    /**
+     * Read by other threads while a tree is still being scanned, e.g. to copy its partial results.
+     */
+    public volatile long sizeInBytes;
+    /**
+     * Latest update of any file below this node as epoch millis, {@link Timestamps#NO_DATE} if unknown.
+     */
+    public volatile long latestDate = Timestamps.NO_DATE;
+    /**
+     * When the folder itself was last modified according to the server as epoch millis, {@link Timestamps#NO_DATE} if unknown.
+     */
+    public long lastModified = Timestamps.NO_DATE;
+    /**
+     * Sizes of the files directly inside this folder by the day they were last updated, <code>null</code> if there are none.
+     */
+    public SizeHistogram histogram;
+    /**
+     * Set while a scanner has not yet added the totals of all children to this node.
+     */
+    public volatile boolean pending;
+    /**
+     * Set on folders whose contents have not been scanned (yet). Their size is only an estimate
+     * and they have no children.
+     *
+     * @see ArtifactoryScanner#scanRepoLazily(ArtifactoryClient.Repository, int, java.util.function.BooleanSupplier, ArtifactoryScanner.IProgressReporter)
+     */
+    public volatile boolean unexpanded;
 
     public SizeAndLatestDate(SizeAndLatestDate parent, String path)
     {
         Validate.notNull( parent, "parent must not be null" );
         Validate.notNull( path, "path must not be null" );
-        this.repo = null;
+        this.repo = parent.repo;
         this.parent = parent;
-        this.path = path;
+        this.segments = parent.segments;
+        this.path = segments.computeIfAbsent( path, x -> x );
+        this.depth = parent.depth + 1;
+        this.pathHash = hash( parent.pathHash, path );
         parent.children.add(this);
     }
 
@@ -30,7 +81,21 @@ public final class SizeAndLatestDate
         Validate.notNull( repo, "repo must not be null" );
         this.parent = null;
         this.repo = repo;
+        this.segments = new ConcurrentHashMap<>();
         this.path = path;
+        this.depth = 0;
+        this.pathHash = path.hashCode();
+        this.fullPath = path;
+    }
+
+    private static int hash(int prefixHash, String suffix)
+    {
+        // same as (prefix + suffix).hashCode()
+        int result = prefixHash;
+        for ( int i = 0, len = suffix.length() ; i < len ; i++ ) {
+            result = 31 * result + suffix.charAt( i );
+        }
+        return result;
     }
 
     public boolean isLeaf() {
@@ -43,9 +108,17 @@ public final class SizeAndLatestDate
 
     private SizeAndLatestDate copy(SizeAndLatestDate newParent)
     {
-        final SizeAndLatestDate result = newParent != null ? new SizeAndLatestDate(newParent,this.path) : new SizeAndLatestDate( repo,getPath());
+        return copy( newParent, newParent != null ? this.path : getPath() );
+    }
+
+    private SizeAndLatestDate copy(SizeAndLatestDate newParent, String newPath)
+    {
+        final SizeAndLatestDate result = newParent != null ? new SizeAndLatestDate(newParent,newPath) : new SizeAndLatestDate( repo,newPath);
         result.sizeInBytes = this.sizeInBytes;
         result.latestDate = this.latestDate;
+        result.lastModified = this.lastModified;
+        result.histogram = this.histogram == null ? null : this.histogram.copy();
+        result.unexpanded = this.unexpanded;
         return result;
     }
 
@@ -55,10 +128,124 @@ public final class SizeAndLatestDate
             return null;
         }
         final SizeAndLatestDate result = copy(parent);
-        this.children.stream().filter( filter ).map( x -> x.copy(result,filter) ).forEach( result.children::add );
+        // the constructor already adds copies to their parent, children may still get
+        // registered while a tree is being copied so don't iterate the list itself
+        for ( Object child : children.toArray() ) {
+            ( (SizeAndLatestDate) child ).copy( result, filter );
+        }
+        return result;
+    }
+
+    /**
+     * Copies a tree that is still being scanned.
+     *
+     * Pending nodes get the totals known so far, i.e. whatever has been added to them already plus the
+     * (partial) totals of their children. Nodes whose children are still being registered get copied
+     * with the children seen at the time.
+     *
+     * @param newParent parent of the copy, <code>null</code> to copy as a root node
+     * @return copy, no longer pending
+     */
+    public SizeAndLatestDate copyPartial(SizeAndLatestDate newParent)
+    {
+        if ( ! pending ) {
+            return copy( newParent, node -> true );
+        }
+        final SizeAndLatestDate result = copy( newParent );
+        for ( Object child : children.toArray() ) {
+            result.merge( ( (SizeAndLatestDate) child ).copyPartial( result ) );
+        }
+        if ( ! pending )
+        {
+            // completed meanwhile, its own totals include the children now
+            result.sizeInBytes = sizeInBytes;
+            result.latestDate = latestDate;
+        }
         return result;
     }
 
+    /**
+     * Copies this tree, replacing an unexpanded folder by the result of scanning it.
+     *
+     * The totals of the folder's ancestors get adjusted by the difference between the estimate and the scanned size.
+     *
+     * @param subtree scanned folder, a root node with the full path of the unexpanded folder
+     * @return copy of this tree as a root node, <code>null</code> if this tree has no unexpanded folder at the subtree's path
+     */
+    public SizeAndLatestDate copyExpanding(SizeAndLatestDate subtree)
+    {
+        Validate.notNull( subtree, "subtree must not be null" );
+        if ( ! getRepoId().equals( subtree.getRepoId() ) ) {
+            return null;
+        }
+        final SizeAndLatestDate placeholder = find( subtree.getPath() );
+        if ( placeholder == null || ! placeholder.unexpanded ) {
+            return null;
+        }
+        final Set<SizeAndLatestDate> ancestors = Collections.newSetFromMap( new IdentityHashMap<>() );
+        for ( SizeAndLatestDate node = placeholder.parent ; node != null ; node = node.parent ) {
+            ancestors.add( node );
+        }
+        return copyExpanding( null, placeholder, ancestors, subtree, subtree.sizeInBytes - placeholder.sizeInBytes );
+    }
+
+    private SizeAndLatestDate copyExpanding(SizeAndLatestDate newParent, SizeAndLatestDate placeholder, Set<SizeAndLatestDate> ancestors,
+                                            SizeAndLatestDate subtree, long delta)
+    {
+        if ( this == placeholder )
+        {
+            final SizeAndLatestDate result = subtree.copy( newParent, this.path );
+            subtree.children.forEach( x -> x.copy( result, node -> true ) );
+            return result;
+        }
+        if ( ! ancestors.contains( this ) ) {
+            return copy( newParent, node -> true );
+        }
+        final SizeAndLatestDate result = copy( newParent );
+        result.sizeInBytes += delta;
+        result.latestDate = Math.max( result.latestDate, subtree.latestDate );
+        for ( Object child : children.toArray() ) {
+            ( (SizeAndLatestDate) child ).copyExpanding( result, placeholder, ancestors, subtree, delta );
+        }
+        return result;
+    }
+
+    /**
+     * Returns the node at a path.
+     *
+     * @param path full path
+     * @return this node or one of its descendants, <code>null</code> if there is no node at the path
+     */
+    public SizeAndLatestDate find(String path)
+    {
+        Validate.notNull( path, "path must not be null" );
+        if ( ! path.startsWith( getPath() ) ) {
+            return null;
+        }
+        SizeAndLatestDate node = this;
+        int offset = getPath().length();
+        while ( offset < path.length() )
+        {
+            SizeAndLatestDate next = null;
+            for ( Object obj : node.children.toArray() )
+            {
+                final SizeAndLatestDate child = (SizeAndLatestDate) obj;
+                final int end = offset + child.path.length();
+                if ( path.startsWith( child.path, offset ) && ( end == path.length() || path.charAt( end ) == '/' ) )
+                {
+                    next = child;
+                    break;
+                }
+            }
+            if ( next == null ) {
+                return null;
+            }
+            node = next;
+            offset += next.path.length();
+        }
+        return node;
+    }
+
     public void fixSizes()
     {
         if ( ! children.isEmpty() )
@@ -80,52 +267,204 @@ public final class SizeAndLatestDate
         if( obj instanceof SizeAndLatestDate )
         {
             final SizeAndLatestDate other = (SizeAndLatestDate) obj;
-            return getRepoId().equals( other.getRepoId() ) && getPath().equals( other.getPath() );
+            if ( other == this ) {
+                return true;
+            }
+            return pathHash == other.pathHash && getRepoId().equals( other.getRepoId() ) && samePath( this, other );
         }
         return false;
     }
 
+    /**
+     * Compares the full paths of two nodes without building them.
+     *
+     * The same path may be split into segments differently, e.g. the root node returned by
+     * {@link ArtifactoryScanner#expandFolder} holds the full path of a folder that is a descendant in the
+     * tree it was expanded from. So paths get compared character by character from the end,
+     * moving up to the parent whenever a segment has been used up.
+     */
+    private static boolean samePath(SizeAndLatestDate a, SizeAndLatestDate b)
+    {
+        int i = a.path.length();
+        int j = b.path.length();
+        while ( true )
+        {
+            while ( i == 0 && a.parent != null )
+            {
+                a = a.parent;
+                i = a.path.length();
+            }
+            while ( j == 0 && b.parent != null )
+            {
+                b = b.parent;
+                j = b.path.length();
+            }
+            if ( a == b && i == j ) {
+                // same node, so the rest of the path is the same as well
+                return true;
+            }
+            if ( i == 0 || j == 0 ) {
+                return i == 0 && j == 0;
+            }
+            if ( a.path.charAt( --i ) != b.path.charAt( --j ) ) {
+                return false;
+            }
+        }
+    }
+
     @Override
     public int hashCode()
     {
-        return 31*(31*getRepoId().hashCode()+getPath().hashCode());
+        return 31*(31*getRepoId().hashCode()+pathHash);
     }
 
     public String getRepoId() {
-        return parent == null ? repo.repoId : parent.getRepoId();
+        return repo.repoId;
     }
 
+    public ArtifactoryClient.Repository getRepo() {
+        return repo;
+    }
+
+    /**
+     * @return number of ancestors, 0 for a root node
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return this node's own path segment (relative to its parent)
+     */
+    public String getPathSegment()
+    {
+        return path;
+    }
+
+    /**
+     * @return full path, built on first use and cached afterwards
+     */
     public String getPath()
     {
-        if ( parent == null ) {
-            return path;
+        String result = fullPath;
+        if ( result == null )
+        {
+            int length = 0;
+            for ( SizeAndLatestDate node = this ; node != null ; node = node.parent ) {
+                length += node.path.length();
+            }
+            final char[] chars = new char[ length ];
+            for ( SizeAndLatestDate node = this ; node != null ; node = node.parent )
+            {
+                length -= node.path.length();
+                node.path.getChars( 0, node.path.length(), chars, length );
+            }
+            result = new String( chars );
+            fullPath = result;
         }
-        return parent.getPath()+path;
+        return result;
     }
 
-    public synchronized void merge(long size,ZonedDateTime date)
+    private static int comparePaths(SizeAndLatestDate a, SizeAndLatestDate b)
+    {
+        if ( a == b ) {
+            return 0;
+        }
+        // move up to the same depth, a node comes before its descendants
+        SizeAndLatestDate x = a;
+        SizeAndLatestDate y = b;
+        while ( x.depth > y.depth ) {
+            x = x.parent;
+        }
+        while ( y.depth > x.depth ) {
+            y = y.parent;
+        }
+        if ( x == y ) {
+            return Integer.compare( a.depth, b.depth );
+        }
+        // move up to the children of the common ancestor
+        while ( x.parent != y.parent )
+        {
+            x = x.parent;
+            y = y.parent;
+        }
+        final int result = x.path.compareToIgnoreCase( y.path );
+        return result != 0 ? result : Integer.compare( a.depth, b.depth );
+    }
+
+    /**
+     * Adds a size to this node and updates its latest date.
+     *
+     * Not thread-safe, scanners accumulate totals elsewhere and merge them once all children of a node are known.
+     */
+    public void merge(long size,long date)
     {
         this.sizeInBytes += size;
-        if ( latestDate == null || date.isAfter( latestDate ) )
+        if ( date > latestDate )
         {
             latestDate = date;
         }
     }
 
-    public synchronized void merge(SizeAndLatestDate other)
+    /**
+     * Adds a file directly inside this folder.
+     *
+     * Not thread-safe.
+     */
+    public void addFile(long size,long date)
+    {
+        merge( size, date );
+        if ( histogram == null ) {
+            histogram = new SizeHistogram();
+        }
+        histogram.add( size, date );
+    }
+
+    /**
+     * @return size of the files directly inside this folder that were last updated before a given day
+     * @see SizeHistogram#getSizeBefore(int)
+     */
+    public long getOwnSizeBefore(int day)
+    {
+        if ( unexpanded )
+        {
+            // the server updates a folder's modification date whenever anything below it changes,
+            // so either all files below it are old enough or it's not known which ones are
+            return latestDate != Timestamps.NO_DATE && SizeHistogram.day( latestDate ) < day ? sizeInBytes : 0;
+        }
+        return histogram == null ? 0 : histogram.getSizeBefore( day );
+    }
+
+    public void merge(SizeAndLatestDate other)
     {
         merge(other.sizeInBytes,other.latestDate);
     }
 
+    /**
+     * Recursively adds the totals of all child nodes to their parents.
+     *
+     * Only to be used on trees where each node so far only holds the sizes of the files
+     * directly contained in it. Clears the nodes' {@link #pending} flags.
+     */
+    public void sumUpChildren()
+    {
+        for ( SizeAndLatestDate child : children )
+        {
+            child.sumUpChildren();
+            merge( child );
+        }
+        pending = false;
+    }
+
     @Override
-    public synchronized String toString()
+    public String toString()
     {
-        return getRepoId()+";"+getPath()+";"+sizeInBytes+";"+latestDate;
+        return getRepoId()+";"+getPath()+";"+sizeInBytes+";"+Timestamps.toDate( latestDate );
     }
 
     public void sortChildren()
     {
         children.forEach( x -> x.sortChildren() );
-        children.sort( (a,b) -> a.getPath().compareToIgnoreCase( b.getPath() ) );
+        children.sort( PATH_ORDER );
     }
 }
@@ -0,0 +1,129 @@
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+/**
+ * Total size of files by the day they were last updated.
+ *
+ * Kept as a sorted list of (day, size) entries. Files in one folder usually stem from only a handful of days,
+ * so most histograms hold just one or two entries. Files without a date are counted as older than any date.
+ *
+ * Thread-safe.
+ */
+public final class SizeHistogram
+{
+    /**
+     * Day of files without a date.
+     */
+    private static final int NO_DAY = Integer.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private int[] days;
+    private long[] sizes;
+    private int count;
+
+    public SizeHistogram()
+    {
+        this( 1 );
+    }
+
+    private SizeHistogram(int capacity)
+    {
+        days = new int[ capacity ];
+        sizes = new long[ capacity ];
+    }
+
+    /**
+     * @param size size of a file in bytes
+     * @param date when the file was last updated as epoch millis, may be {@link Timestamps#NO_DATE}
+     */
+    public void add(long size, long date)
+    {
+        addDay( date == Timestamps.NO_DATE ? NO_DAY : day( date ), size );
+    }
+
+    /**
+     * Adds a day's total.
+     *
+     * @param day days since the epoch (UTC)
+     * @param size
+     */
+    public synchronized void addDay(int day, long size)
+    {
+        final int idx = Arrays.binarySearch( days, 0, count, day );
+        if ( idx >= 0 )
+        {
+            sizes[idx] += size;
+            return;
+        }
+        final int insertAt = -( idx + 1 );
+        if ( count == days.length )
+        {
+            days = Arrays.copyOf( days, count * 2 );
+            sizes = Arrays.copyOf( sizes, count * 2 );
+        }
+        System.arraycopy( days, insertAt, days, insertAt + 1, count - insertAt );
+        System.arraycopy( sizes, insertAt, sizes, insertAt + 1, count - insertAt );
+        days[insertAt] = day;
+        sizes[insertAt] = size;
+        count++;
+    }
+
+    /**
+     * Returns the size of all files last updated before a given day.
+     *
+     * @param date files updated on this date's day (UTC) or later are not counted
+     * @return size in bytes
+     */
+    public long getSizeBefore(ZonedDateTime date)
+    {
+        return getSizeBefore( day( date.toInstant().toEpochMilli() ) );
+    }
+
+    /**
+     * @param day days since the epoch (UTC)
+     */
+    public synchronized long getSizeBefore(int day)
+    {
+        long result = 0;
+        for ( int i = 0 ; i < count && days[i] < day ; i++ ) {
+            result += sizes[i];
+        }
+        return result;
+    }
+
+    public synchronized SizeHistogram copy()
+    {
+        final SizeHistogram result = new SizeHistogram( Math.max( 1, count ) );
+        System.arraycopy( days, 0, result.days, 0, count );
+        System.arraycopy( sizes, 0, result.sizes, 0, count );
+        result.count = count;
+        return result;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return day of an entry, entries are sorted by day
+     */
+    public synchronized int getDay(int entry)
+    {
+        return days[entry];
+    }
+
+    public synchronized long getSize(int entry)
+    {
+        return sizes[entry];
+    }
+
+    /**
+     * @return days since the epoch (UTC)
+     */
+    public static int day(long epochMillis)
+    {
+        return (int) Math.floorDiv( epochMillis, MILLIS_PER_DAY );
+    }
+}
@@ -0,0 +1,218 @@
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Timestamps as epoch milliseconds.
+ *
+ * Dates are kept as primitive longs while scanning, {@link ZonedDateTime} instances are only created for display.
+ * Parses ISO-8601 timestamps like <code>2021-01-01T10:00:00.000+01:00</code> straight from a character buffer,
+ * without creating any objects.
+ */
+public final class Timestamps
+{
+    /**
+     * Marks an unknown date. Less than any other date, so the latest of several dates is simply their maximum.
+     */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private Timestamps()
+    {
+    }
+
+    /**
+     * @param text timestamp
+     * @return epoch millis
+     * @throws DateTimeParseException if the timestamp is malformed
+     * @see #parse(char[], int, int)
+     */
+    public static long parse(String text)
+    {
+        return parse( text.toCharArray(), 0, text.length() );
+    }
+
+    /**
+     * Parses an ISO-8601 timestamp.
+     *
+     * Accepts <code>yyyy-MM-ddTHH:mm[:ss[.fraction]]</code> followed by either <code>Z</code> or an offset like
+     * <code>+01:00</code>, <code>+0100</code> or <code>+01</code>. Digits of the fraction beyond milliseconds are ignored.
+     *
+     * @param chars buffer
+     * @param offset index of the first character of the timestamp
+     * @param length number of characters
+     * @return epoch millis
+     * @throws DateTimeParseException if the timestamp is malformed
+     */
+    public static long parse(char[] chars, int offset, int length)
+    {
+        final int end = offset + length;
+        int pos = offset;
+
+        final int year = digits( chars, offset, length, pos, 4 );
+        pos = expect( chars, offset, length, pos + 4, '-' );
+        final int month = digits( chars, offset, length, pos, 2 );
+        pos = expect( chars, offset, length, pos + 2, '-' );
+        final int day = digits( chars, offset, length, pos, 2 );
+        pos += 2;
+        if ( pos >= end || ( chars[pos] != 'T' && chars[pos] != 't' && chars[pos] != ' ' ) ) {
+            throw fail( chars, offset, length, pos );
+        }
+        pos++;
+        final int hour = digits( chars, offset, length, pos, 2 );
+        pos = expect( chars, offset, length, pos + 2, ':' );
+        final int minute = digits( chars, offset, length, pos, 2 );
+        pos += 2;
+        int second = 0;
+        int millis = 0;
+        if ( pos < end && chars[pos] == ':' )
+        {
+            second = digits( chars, offset, length, pos + 1, 2 );
+            pos += 3;
+            if ( pos < end && ( chars[pos] == '.' || chars[pos] == ',' ) )
+            {
+                pos++;
+                final int start = pos;
+                while ( pos < end && isDigit( chars[pos] ) )
+                {
+                    if ( pos - start < 3 ) {
+                        millis = millis * 10 + ( chars[pos] - '0' );
+                    }
+                    pos++;
+                }
+                if ( pos == start ) {
+                    throw fail( chars, offset, length, pos );
+                }
+                for ( int i = pos - start ; i < 3 ; i++ ) {
+                    millis *= 10;
+                }
+            }
+        }
+
+        if ( pos >= end ) {
+            throw fail( chars, offset, length, pos );
+        }
+        final int offsetSeconds;
+        final char sign = chars[pos];
+        if ( sign == 'Z' || sign == 'z' )
+        {
+            offsetSeconds = 0;
+            pos++;
+        }
+        else if ( sign == '+' || sign == '-' )
+        {
+            final int offsetHours = digits( chars, offset, length, pos + 1, 2 );
+            pos += 3;
+            int offsetMinutes = 0;
+            if ( pos < end )
+            {
+                if ( chars[pos] == ':' ) {
+                    pos++;
+                }
+                offsetMinutes = digits( chars, offset, length, pos, 2 );
+                pos += 2;
+            }
+            if ( offsetHours > 18 || offsetMinutes > 59 ) {
+                throw fail( chars, offset, length, pos );
+            }
+            offsetSeconds = ( sign == '-' ? -1 : 1 ) * ( offsetHours * 3600 + offsetMinutes * 60 );
+        }
+        else {
+            throw fail( chars, offset, length, pos );
+        }
+        if ( pos != end ) {
+            throw fail( chars, offset, length, pos );
+        }
+
+        if ( month < 1 || month > 12 || day < 1 || day > lengthOfMonth( year, month ) ||
+             hour > 23 || minute > 59 || second > 59 )
+        {
+            throw fail( chars, offset, length, offset );
+        }
+        final long seconds = epochDay( year, month, day ) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second - offsetSeconds;
+        return seconds * 1000 + millis;
+    }
+
+    /**
+     * @return date in the system's default time zone, <code>null</code> for {@link #NO_DATE}
+     */
+    public static ZonedDateTime toDate(long millis)
+    {
+        return millis == NO_DATE ? null : ZonedDateTime.ofInstant( Instant.ofEpochMilli( millis ), ZoneId.systemDefault() );
+    }
+
+    /**
+     * @return epoch millis, {@link #NO_DATE} for <code>null</code>
+     */
+    public static long toMillis(ZonedDateTime date)
+    {
+        return date == null ? NO_DATE : date.toInstant().toEpochMilli();
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar, see
+     * Howard Hinnant: "chrono-Compatible Low-Level Date Algorithms".
+     */
+    private static long epochDay(int year, int month, int day)
+    {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = Math.floorDiv( y, 400 );
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = ( 153 * ( month > 2 ? month - 3 : month + 9 ) + 2 ) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month)
+    {
+        switch ( month )
+        {
+            case 2:
+                final boolean leap = ( year % 4 == 0 && year % 100 != 0 ) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int digits(char[] chars, int offset, int length, int pos, int count)
+    {
+        if ( pos + count > offset + length ) {
+            throw fail( chars, offset, length, offset + length );
+        }
+        int result = 0;
+        for ( int i = pos ; i < pos + count ; i++ )
+        {
+            if ( ! isDigit( chars[i] ) ) {
+                throw fail( chars, offset, length, i );
+            }
+            result = result * 10 + ( chars[i] - '0' );
+        }
+        return result;
+    }
+
+    private static int expect(char[] chars, int offset, int length, int pos, char expected)
+    {
+        if ( pos >= offset + length || chars[pos] != expected ) {
+            throw fail( chars, offset, length, pos );
+        }
+        return pos + 1;
+    }
+
+    private static DateTimeParseException fail(char[] chars, int offset, int length, int errorPos)
+    {
+        return new DateTimeParseException( "Unparseable timestamp", new String( chars, offset, length ), errorPos - offset );
+    }
+}
@@ -0,0 +1,331 @@
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * Squarified layout of a weighted tree, see Bruls, Huizing, van Wijk: "Squarified Treemaps".
+ *
+ * Immutable once computed, so it can be computed on one thread and used on another. Nodes whose
+ * rectangle would be smaller than {@link #MIN_SIZE} pixels in either direction are left out,
+ * which bounds the number of rectangles by the number of pixels rather than the size of the tree.
+ *
+ * Hit-testing uses a uniform grid of {@link #CELL_SIZE} pixel cells, each listing the rectangles overlapping it.
+ * Every level of the tree covers a cell at most once and at most (CELL_SIZE / MIN_SIZE)^2 rectangles fit into a cell,
+ * so a lookup checks a bounded number of rectangles however many there are in total.
+ */
+public final class TreeMapLayout<N> implements ITreeModel<IRectangle<N>>
+{
+    /**
+     * Min. width and height of a rectangle.
+     */
+    private static final int MIN_SIZE = 2;
+
+    /**
+     * How many rectangles to lay out between checks for cancellation.
+     */
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    /**
+     * Width and height of a cell of the hit-testing grid, in pixels.
+     */
+    private static final int CELL_SIZE = 16;
+
+    private static final class Rectangle<N> implements IRectangle<N>
+    {
+        private final N node;
+        private final Rectangle<N> parent;
+        private final int x, y, width, height;
+        private List<Rectangle<N>> children = Collections.emptyList();
+
+        public Rectangle(N node, Rectangle<N> parent, int x, int y, int width, int height)
+        {
+            this.node = node;
+            this.parent = parent;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override public int getX() { return x; }
+        @Override public int getY() { return y; }
+        @Override public int getWidth() { return width; }
+        @Override public int getHeight() { return height; }
+        @Override public N getNode() { return node; }
+
+        @Override
+        public boolean contains(int px, int py)
+        {
+            return px >= x && py >= y && px < x + width && py < y + height;
+        }
+    }
+
+    private final Rectangle<N> root;
+    private final int width;
+    private final int height;
+    /**
+     * All rectangles, parents before their children.
+     */
+    private final List<IRectangle<N>> rectangles;
+
+    private final int columns;
+    /**
+     * Rectangles overlapping grid cell <code>i</code> are <code>cellEntries[cellStart[i]]</code> to
+     * <code>cellEntries[cellStart[i+1]-1]</code>, as indices into {@link #rectangles}, parents first.
+     */
+    private final int[] cellStart;
+    private final int[] cellEntries;
+
+    private TreeMapLayout(Rectangle<N> root, int width, int height, List<IRectangle<N>> rectangles)
+    {
+        this.root = root;
+        this.width = width;
+        this.height = height;
+        this.rectangles = Collections.unmodifiableList( rectangles );
+
+        this.columns = Math.max( 1, ( width + CELL_SIZE - 1 ) / CELL_SIZE );
+        final int rows = Math.max( 1, ( height + CELL_SIZE - 1 ) / CELL_SIZE );
+        this.cellStart = new int[ columns * rows + 1 ];
+        for ( IRectangle<N> r : rectangles )
+        {
+            forEachCell( r, cell -> cellStart[ cell + 1 ]++ );
+        }
+        for ( int i = 1 ; i < cellStart.length ; i++ ) {
+            cellStart[i] += cellStart[i - 1];
+        }
+        this.cellEntries = new int[ cellStart[ cellStart.length - 1 ] ];
+        final int[] next = Arrays.copyOf( cellStart, cellStart.length - 1 );
+        for ( int i = 0 ; i < rectangles.size() ; i++ )
+        {
+            final int index = i;
+            forEachCell( rectangles.get( i ), cell -> cellEntries[ next[cell]++ ] = index );
+        }
+    }
+
+    private void forEachCell(IRectangle<N> r, IntConsumer consumer)
+    {
+        final int lastColumn = ( r.getX() + r.getWidth() - 1 ) / CELL_SIZE;
+        final int lastRow = ( r.getY() + r.getHeight() - 1 ) / CELL_SIZE;
+        for ( int row = r.getY() / CELL_SIZE ; row <= lastRow ; row++ )
+        {
+            for ( int column = r.getX() / CELL_SIZE ; column <= lastColumn ; column++ ) {
+                consumer.accept( row * columns + column );
+            }
+        }
+    }
+
+    /**
+     * Lays out a tree.
+     *
+     * @param model tree, must not be changed while the layout is being computed
+     * @param width width of the area in pixels
+     * @param height height of the area in pixels
+     * @param cancelled checked every now and then
+     * @return layout
+     * @throws CancellationException if cancelled
+     */
+    public static <N> TreeMapLayout<N> compute(IWeightedTreeModel<N> model, int width, int height, BooleanSupplier cancelled)
+    {
+        final N rootNode = model.getRoot();
+        if ( rootNode == null || width < MIN_SIZE || height < MIN_SIZE ) {
+            return new TreeMapLayout<>( null, width, height, new ArrayList<>() );
+        }
+        final List<IRectangle<N>> rectangles = new ArrayList<>();
+        final Rectangle<N> root = new Rectangle<>( rootNode, null, 0, 0, width, height );
+        rectangles.add( root );
+
+        // breadth-first, so parents come before their children
+        for ( int i = 0 ; i < rectangles.size() ; i++ )
+        {
+            if ( ( i % CANCEL_CHECK_INTERVAL ) == 0 && cancelled.getAsBoolean() ) {
+                throw new CancellationException();
+            }
+            final Rectangle<N> parent = (Rectangle<N>) rectangles.get( i );
+            if ( model.hasChildren( parent.node ) ) {
+                layoutChildren( model, parent, rectangles );
+            }
+        }
+        return new TreeMapLayout<>( root, width, height, rectangles );
+    }
+
+    private static <N> void layoutChildren(IWeightedTreeModel<N> model, Rectangle<N> parent, List<IRectangle<N>> rectangles)
+    {
+        final List<N> nodes = new ArrayList<>();
+        final List<Long> weights = new ArrayList<>();
+        long total = 0;
+        for ( Iterator<N> it = model.getChildren( parent.node ) ; it.hasNext() ; )
+        {
+            final N child = it.next();
+            final long weight = model.getWeight( child );
+            if ( weight > 0 )
+            {
+                nodes.add( child );
+                weights.add( weight );
+                total += weight;
+            }
+        }
+        if ( nodes.isEmpty() ) {
+            return;
+        }
+        final Integer[] order = new Integer[ nodes.size() ];
+        for ( int i = 0 ; i < order.length ; i++ ) {
+            order[i] = i;
+        }
+        Arrays.sort( order, (a, b) -> Long.compare( weights.get( b ), weights.get( a ) ) );
+
+        // areas in square pixels, largest first. Files directly inside the parent take up the area left over.
+        final double scale = (double) parent.width * parent.height / Math.max( total, model.getWeight( parent.node ) );
+        final double[] areas = new double[ order.length ];
+        for ( int i = 0 ; i < areas.length ; i++ ) {
+            areas[i] = weights.get( order[i] ) * scale;
+        }
+
+        final List<Rectangle<N>> children = new ArrayList<>();
+        double x = parent.x, y = parent.y, w = parent.width, h = parent.height;
+        int start = 0;
+        while ( start < areas.length )
+        {
+            // grow the row as long as its worst aspect ratio gets better
+            final double side = Math.min( w, h );
+            double rowArea = areas[start];
+            double min = areas[start];
+            double max = areas[start];
+            int end = start + 1;
+            while ( end < areas.length )
+            {
+                final double newArea = rowArea + areas[end];
+                if ( worst( newArea, Math.min( min, areas[end] ), Math.max( max, areas[end] ), side ) > worst( rowArea, min, max, side ) ) {
+                    break;
+                }
+                rowArea = newArea;
+                min = Math.min( min, areas[end] );
+                max = Math.max( max, areas[end] );
+                end++;
+            }
+
+            // place the row along the shorter side
+            final double thickness = rowArea / side;
+            double offset = 0;
+            for ( int i = start ; i < end ; i++ )
+            {
+                final double length = areas[i] / thickness;
+                final Rectangle<N> child = w >= h ?
+                    create( nodes.get( order[i] ), parent, x, y + offset, thickness, length ) :
+                    create( nodes.get( order[i] ), parent, x + offset, y, length, thickness );
+                if ( child != null ) {
+                    children.add( child );
+                }
+                offset += length;
+            }
+            if ( w >= h )
+            {
+                x += thickness;
+                w -= thickness;
+            }
+            else
+            {
+                y += thickness;
+                h -= thickness;
+            }
+            start = end;
+        }
+        parent.children = children;
+        rectangles.addAll( children );
+    }
+
+    /**
+     * @return the worst aspect ratio of the rectangles in a row
+     */
+    private static double worst(double rowArea, double min, double max, double side)
+    {
+        final double sideSquared = side * side;
+        final double rowAreaSquared = rowArea * rowArea;
+        return Math.max( sideSquared * max / rowAreaSquared, rowAreaSquared / ( sideSquared * min ) );
+    }
+
+    private static <N> Rectangle<N> create(N node, Rectangle<N> parent, double x, double y, double width, double height)
+    {
+        // round the edges rather than the sizes, so neighbours share their edges
+        final int x0 = (int) Math.round( x );
+        final int y0 = (int) Math.round( y );
+        final int w = (int) Math.round( x + width ) - x0;
+        final int h = (int) Math.round( y + height ) - y0;
+        if ( w < MIN_SIZE || h < MIN_SIZE ) {
+            return null;
+        }
+        return new Rectangle<>( node, parent, x0, y0, w, h );
+    }
+
+    /**
+     * @return all rectangles, parents before their children
+     */
+    public List<IRectangle<N>> getRectangles()
+    {
+        return rectangles;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the innermost rectangle containing a point.
+     *
+     * @return rectangle or <code>null</code>
+     */
+    public IRectangle<N> findRectangle(int x, int y)
+    {
+        if ( root == null || ! root.contains( x, y ) ) {
+            return null;
+        }
+        final int cell = ( y / CELL_SIZE ) * columns + x / CELL_SIZE;
+        // rectangles are ordered by depth, so the last one containing the point is the innermost
+        for ( int i = cellStart[ cell + 1 ] - 1 ; i >= cellStart[ cell ] ; i-- )
+        {
+            final IRectangle<N> candidate = rectangles.get( cellEntries[i] );
+            if ( candidate.contains( x, y ) ) {
+                return candidate;
+            }
+        }
+        return root;
+    }
+
+    @Override
+    public Iterator<IRectangle<N>> getChildren(IRectangle<N> rectangle)
+    {
+        return Collections.<IRectangle<N>>unmodifiableList( ( (Rectangle<N>) rectangle ).children ).iterator();
+    }
+
+    @Override
+    public IRectangle<N> getParent(IRectangle<N> rectangle)
+    {
+        return ( (Rectangle<N>) rectangle ).parent;
+    }
+
+    @Override
+    public IRectangle<N> getRoot()
+    {
+        return root;
+    }
+
+    @Override
+    public boolean hasChildren(IRectangle<N> rectangle)
+    {
+        return ! ( (Rectangle<N>) rectangle ).children.isEmpty();
+    }
+}
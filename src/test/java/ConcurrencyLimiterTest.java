@@ -0,0 +1,170 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConcurrencyLimiterTest
+{
+    private static final long MILLIS = 1_000_000;
+
+    /**
+     * Uses up all permits of a limiter.
+     */
+    private static void saturate(ConcurrencyLimiter limiter)
+    {
+        while ( limiter.getInFlight() < limiter.getLimit() ) {
+            assertTrue( limiter.acquireAsync( null ).isDone() );
+        }
+    }
+
+    /**
+     * Keeps all permits in use while releasing a window of requests with the same latency.
+     */
+    private static void releaseWindow(ConcurrencyLimiter limiter, long latencyNanos)
+    {
+        for ( int i = 0 ; i < 100 ; i++ )
+        {
+            saturate( limiter );
+            limiter.release( latencyNanos );
+        }
+    }
+
+    @Test
+    public void testPermitsUpToLimit()
+    {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter( 10 );
+        saturate( limiter );
+        assertEquals( 4, limiter.getInFlight() );
+
+        final CompletableFuture<Void> waiting = limiter.acquireAsync( null );
+        assertFalse( waiting.isDone() );
+        assertEquals( 1, limiter.getQueueLength() );
+
+        limiter.release( MILLIS );
+        assertTrue( waiting.isDone() );
+        assertEquals( 4, limiter.getInFlight() );
+        assertEquals( 0, limiter.getQueueLength() );
+    }
+
+    @Test
+    public void testMaxLimit()
+    {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter( 2 );
+        assertEquals( 2, limiter.getLimit() );
+
+        limiter.setMaxLimit( 1 );
+        assertEquals( 1, limiter.getLimit() );
+        assertThrows( IllegalArgumentException.class, () -> limiter.setMaxLimit( 0 ) );
+    }
+
+    @Test
+    public void testKeysServedInTurn()
+    {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter( 1 );
+        saturate( limiter );
+
+        final CompletableFuture<Void> a1 = limiter.acquireAsync( "a" );
+        final CompletableFuture<Void> a2 = limiter.acquireAsync( "a" );
+        final CompletableFuture<Void> b1 = limiter.acquireAsync( "b" );
+
+        limiter.release( MILLIS );
+        assertTrue( a1.isDone() );
+        limiter.release( MILLIS );
+        assertTrue( b1.isDone() );
+        assertFalse( a2.isDone() );
+        limiter.release( MILLIS );
+        assertTrue( a2.isDone() );
+    }
+
+    @Test
+    public void testUrgentRequestsFirst()
+    {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter( 1 );
+        saturate( limiter );
+
+        final CompletableFuture<Void> normal = limiter.acquireAsync( "a" );
+        final CompletableFuture<Void> urgent = limiter.acquireAsync( "b", true );
+
+        limiter.release( MILLIS );
+        assertTrue( urgent.isDone() );
+        assertFalse( normal.isDone() );
+    }
+
+    @Test
+    public void testCancel()
+    {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter( 1 );
+        saturate( limiter );
+
+        final CompletableFuture<Void> a1 = limiter.acquireAsync( "a" );
+        final CompletableFuture<Void> a2 = limiter.acquireAsync( "a", true );
+        final CompletableFuture<Void> b1 = limiter.acquireAsync( "b" );
+
+        limiter.cancel( "a" );
+        assertEquals( 1, limiter.getQueueLength() );
+        assertEquals( 1, limiter.getInFlight() );
+        assertThrows( CancellationException.class, a1::get );
+        assertTrue( a1.isCompletedExceptionally() );
+        assertThrows( CancellationException.class, a2::join );
+
+        limiter.release( MILLIS );
+        assertTrue( b1.isDone() );
+    }
+
+    @Test
+    public void testOverloadedPausesAndCutsLimit() throws Exception
+    {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter( 10 );
+        saturate( limiter );
+
+        limiter.overloaded( 200 );
+        assertEquals( 2, limiter.getLimit() );
+        limiter.release( MILLIS );
+        limiter.release( MILLIS );
+        assertEquals( 1, limiter.getInFlight() );
+
+        // there'd be a permit left, but the server asked us to wait
+        final CompletableFuture<Void> waiting = limiter.acquireAsync( null );
+        assertFalse( waiting.isDone() );
+        waiting.get( 10, TimeUnit.SECONDS );
+        assertEquals( 2, limiter.getInFlight() );
+    }
+
+    @Test
+    public void testLimitFollowsLatency()
+    {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter( 10 );
+        releaseWindow( limiter, 10 * MILLIS );
+        assertEquals( 10, limiter.getLatencyMillis() );
+        assertEquals( 5, limiter.getLimit() );
+
+        releaseWindow( limiter, 10 * MILLIS );
+        assertEquals( 6, limiter.getLimit() );
+
+        // latency rising well above the baseline cuts the limit
+        releaseWindow( limiter, 100 * MILLIS );
+        assertEquals( 100, limiter.getLatencyMillis() );
+        assertEquals( 4, limiter.getLimit() );
+    }
+
+    @Test
+    public void testLimitIgnoresSlowestResponses()
+    {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter( 10 );
+        releaseWindow( limiter, 10 * MILLIS );
+
+        for ( int i = 0 ; i < 100 ; i++ )
+        {
+            saturate( limiter );
+            limiter.release( i < 3 ? 1000 * MILLIS : 10 * MILLIS );
+        }
+        assertEquals( 10, limiter.getLatencyMillis() );
+        assertEquals( 6, limiter.getLimit() );
+    }
+}
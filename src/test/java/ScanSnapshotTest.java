@@ -0,0 +1,159 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ScanSnapshotTest
+{
+    private static final ArtifactoryClient.Repository REPO = new ArtifactoryClient.Repository( "libs-release", "LOCAL" );
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * <pre>
+     * /org/foo/a.jar  100 bytes, 2021-01-01
+     * /org/foo/b.jar   20 bytes, 2021-03-01
+     * /org/bar        empty
+     * /com/foo/c.jar    5 bytes, no date
+     * </pre>
+     * Both folders below the root use a segment "/foo".
+     */
+    private static SizeAndLatestDate createTree()
+    {
+        final SizeAndLatestDate root = new SizeAndLatestDate( REPO, "" );
+        final SizeAndLatestDate org = new SizeAndLatestDate( root, "/org" );
+        final SizeAndLatestDate orgFoo = new SizeAndLatestDate( org, "/foo" );
+        orgFoo.addFile( 100, Timestamps.parse( "2021-01-01T10:00:00Z" ) );
+        orgFoo.addFile( 20, Timestamps.parse( "2021-03-01T10:00:00Z" ) );
+        orgFoo.lastModified = Timestamps.parse( "2021-03-01T10:00:01Z" );
+        new SizeAndLatestDate( org, "/bar" );
+        final SizeAndLatestDate com = new SizeAndLatestDate( root, "/com" );
+        final SizeAndLatestDate comFoo = new SizeAndLatestDate( com, "/foo" );
+        comFoo.addFile( 5, Timestamps.NO_DATE );
+        root.sumUpChildren();
+        return root;
+    }
+
+    @Test
+    public void testOpenWithoutSnapshot() throws IOException
+    {
+        final Path file = tempDir.resolve( "test.snapshot" );
+        assertFalse( ScanSnapshot.exists( file ) );
+        assertThrows( NoSuchFileException.class, () -> ScanSnapshot.open( file ) );
+    }
+
+    @Test
+    public void testNodesRoundTrip() throws IOException
+    {
+        final Path file = tempDir.resolve( "test.snapshot" );
+        ScanSnapshot.write( createTree(), REPO, file );
+        assertTrue( ScanSnapshot.exists( file ) );
+
+        final ScanSnapshot snapshot = ScanSnapshot.open( file );
+        assertEquals( REPO.repoId, snapshot.getRepository().repoId );
+        assertEquals( REPO.getType(), snapshot.getRepository().getType() );
+        assertEquals( 6, snapshot.getNodeCount() );
+        assertEquals( INodeTable.NO_NODE, snapshot.getParent( 0 ) );
+        assertEquals( 125, snapshot.getSizeInBytes( 0 ) );
+
+        int found = 0;
+        for ( int i = 0 ; i < snapshot.getNodeCount() ; i++ )
+        {
+            final String path = snapshot.getPath( i );
+            if ( path.equals( "/org/foo" ) )
+            {
+                found++;
+                assertEquals( snapshot.getRoot(), new INodeTable.Node( snapshot, snapshot.getParent( snapshot.getParent( i ) ) ) );
+                assertEquals( INodeTable.NO_NODE, snapshot.getFirstChild( i ) );
+                assertEquals( 120, snapshot.getSizeInBytes( i ) );
+                assertEquals( Timestamps.parse( "2021-03-01T10:00:00Z" ), snapshot.getLatestDateMillis( i ) );
+                assertEquals( Timestamps.parse( "2021-03-01T10:00:01Z" ), snapshot.getLastModifiedMillis( i ) );
+                assertEquals( 2, snapshot.getHistogram( i ).getEntryCount() );
+                final int march = SizeHistogram.day( Timestamps.parse( "2021-03-01T00:00:00Z" ) );
+                assertEquals( 100, snapshot.getOwnSizeBefore( i, march ) );
+                assertEquals( 120, snapshot.getOwnSizeBefore( i, march + 1 ) );
+            }
+            else if ( path.equals( "/org/bar" ) )
+            {
+                found++;
+                assertEquals( 0, snapshot.getSizeInBytes( i ) );
+                assertEquals( Timestamps.NO_DATE, snapshot.getLatestDateMillis( i ) );
+                assertNull( snapshot.getHistogram( i ) );
+                assertEquals( 0, snapshot.getOwnSizeBefore( i, Integer.MAX_VALUE ) );
+            }
+            else if ( path.equals( "/com/foo" ) )
+            {
+                found++;
+                assertEquals( "/foo", snapshot.getPathSegment( i ) );
+                assertEquals( 5, snapshot.getOwnSizeBefore( i, 0 ) );
+            }
+            assertFalse( snapshot.isUnexpanded( i ) );
+        }
+        assertEquals( 3, found );
+        assertThrows( IndexOutOfBoundsException.class, () -> snapshot.getSizeInBytes( 6 ) );
+    }
+
+    @Test
+    public void testTreeRoundTrip() throws IOException
+    {
+        final SizeAndLatestDate tree = createTree();
+        final Path file = tempDir.resolve( "test.snapshot" );
+        ScanSnapshot.write( tree, REPO, file );
+
+        assertSameTree( tree, ScanSnapshot.open( file ).toTree() );
+    }
+
+    @Test
+    public void testNewerSnapshotReplacesOlderOne() throws IOException
+    {
+        final Path file = tempDir.resolve( "test.snapshot" );
+        ScanSnapshot.write( createTree(), REPO, file );
+        final ScanSnapshot first = ScanSnapshot.open( file );
+
+        final SizeAndLatestDate changed = createTree();
+        changed.find( "/com/foo" ).addFile( 1000, Timestamps.NO_DATE );
+        changed.sizeInBytes += 1000;
+        ScanSnapshot.write( changed, REPO, file );
+
+        // the first snapshot is still mapped and must not change
+        assertEquals( 125, first.getSizeInBytes( 0 ) );
+        assertEquals( 1125, ScanSnapshot.open( file ).getSizeInBytes( 0 ) );
+    }
+
+    private static void assertSameTree(SizeAndLatestDate expected, SizeAndLatestDate actual)
+    {
+        assertEquals( expected.getPath(), actual.getPath() );
+        assertEquals( expected.sizeInBytes, actual.sizeInBytes, expected.getPath() );
+        assertEquals( expected.latestDate, actual.latestDate, expected.getPath() );
+        assertEquals( expected.lastModified, actual.lastModified, expected.getPath() );
+        if ( expected.histogram == null ) {
+            assertNull( actual.histogram, expected.getPath() );
+        }
+        else
+        {
+            assertEquals( expected.histogram.getEntryCount(), actual.histogram.getEntryCount(), expected.getPath() );
+            for ( int i = 0 ; i < expected.histogram.getEntryCount() ; i++ )
+            {
+                assertEquals( expected.histogram.getDay( i ), actual.histogram.getDay( i ), expected.getPath() );
+                assertEquals( expected.histogram.getSize( i ), actual.histogram.getSize( i ), expected.getPath() );
+            }
+        }
+        assertEquals( expected.children.size(), actual.children.size(), expected.getPath() );
+        for ( SizeAndLatestDate child : expected.children )
+        {
+            final SizeAndLatestDate match = actual.children.stream().filter( child::equals ).findFirst().orElse( null );
+            assertNotNull( match, "Missing " + child.getPath() );
+            assertSameTree( child, match );
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SizeHistogramTest
+{
+    private static long millis(String isoTimestamp)
+    {
+        return Timestamps.parse( isoTimestamp );
+    }
+
+    @Test
+    public void testDay()
+    {
+        assertEquals( 0, SizeHistogram.day( 0 ) );
+        assertEquals( 0, SizeHistogram.day( millis( "1970-01-01T23:59:59.999Z" ) ) );
+        assertEquals( 1, SizeHistogram.day( millis( "1970-01-02T00:00:00Z" ) ) );
+        assertEquals( -1, SizeHistogram.day( -1 ) );
+    }
+
+    @Test
+    public void testEntriesSortedAndMerged()
+    {
+        final SizeHistogram histogram = new SizeHistogram();
+        histogram.addDay( 20, 1 );
+        histogram.addDay( 10, 2 );
+        histogram.addDay( 30, 4 );
+        histogram.addDay( 10, 8 );
+
+        assertEquals( 3, histogram.getEntryCount() );
+        assertEquals( 10, histogram.getDay( 0 ) );
+        assertEquals( 10, histogram.getSize( 0 ) );
+        assertEquals( 20, histogram.getDay( 1 ) );
+        assertEquals( 1, histogram.getSize( 1 ) );
+        assertEquals( 30, histogram.getDay( 2 ) );
+        assertEquals( 4, histogram.getSize( 2 ) );
+    }
+
+    @Test
+    public void testSizeBefore()
+    {
+        final SizeHistogram histogram = new SizeHistogram();
+        histogram.add( 100, millis( "2021-01-01T10:00:00Z" ) );
+        histogram.add( 20, millis( "2021-01-01T23:00:00Z" ) );
+        histogram.add( 3, millis( "2021-01-05T00:00:00Z" ) );
+
+        assertEquals( 0, histogram.getSizeBefore( SizeHistogram.day( millis( "2021-01-01T00:00:00Z" ) ) ) );
+        // files updated on the given day itself are not counted
+        assertEquals( 0, histogram.getSizeBefore( ZonedDateTime.of( 2021, 1, 1, 12, 0, 0, 0, ZoneOffset.UTC ) ) );
+        assertEquals( 120, histogram.getSizeBefore( ZonedDateTime.of( 2021, 1, 2, 0, 0, 0, 0, ZoneOffset.UTC ) ) );
+        assertEquals( 120, histogram.getSizeBefore( ZonedDateTime.of( 2021, 1, 5, 0, 0, 0, 0, ZoneOffset.UTC ) ) );
+        assertEquals( 123, histogram.getSizeBefore( Integer.MAX_VALUE ) );
+    }
+
+    @Test
+    public void testFilesWithoutDateAreOlderThanAnyDate()
+    {
+        final SizeHistogram histogram = new SizeHistogram();
+        histogram.add( 5, Timestamps.NO_DATE );
+        histogram.add( 7, 0 );
+
+        assertEquals( 5, histogram.getSizeBefore( SizeHistogram.day( millis( "1900-01-01T00:00:00Z" ) ) ) );
+        assertEquals( 12, histogram.getSizeBefore( 1 ) );
+    }
+
+    @Test
+    public void testCopy()
+    {
+        final SizeHistogram histogram = new SizeHistogram();
+        histogram.addDay( 1, 10 );
+        histogram.addDay( 2, 20 );
+
+        final SizeHistogram copy = histogram.copy();
+        histogram.addDay( 0, 5 );
+        copy.addDay( 3, 30 );
+
+        assertEquals( 3, histogram.getEntryCount() );
+        assertEquals( 35, histogram.getSizeBefore( 3 ) );
+        assertEquals( 3, copy.getEntryCount() );
+        assertEquals( 30, copy.getSizeBefore( 3 ) );
+        assertEquals( 60, copy.getSizeBefore( 4 ) );
+        assertEquals( 0, new SizeHistogram().copy().getEntryCount() );
+    }
+}
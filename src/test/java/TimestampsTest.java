@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TimestampsTest
+{
+    private static long expected(String isoTimestamp)
+    {
+        return OffsetDateTime.parse( isoTimestamp ).toInstant().toEpochMilli();
+    }
+
+    @Test
+    public void testParseUtc()
+    {
+        assertEquals( expected( "2021-01-01T10:00:00.000Z" ), Timestamps.parse( "2021-01-01T10:00:00.000Z" ) );
+        assertEquals( 0, Timestamps.parse( "1970-01-01T00:00:00Z" ) );
+    }
+
+    @Test
+    public void testParseOffsets()
+    {
+        final long expected = expected( "2021-01-01T10:00:00+01:00" );
+        assertEquals( expected, Timestamps.parse( "2021-01-01T10:00:00.000+01:00" ) );
+        assertEquals( expected, Timestamps.parse( "2021-01-01T10:00:00+0100" ) );
+        assertEquals( expected, Timestamps.parse( "2021-01-01T10:00:00+01" ) );
+        assertEquals( expected( "2021-01-01T10:00:00-05:30" ), Timestamps.parse( "2021-01-01T10:00:00-05:30" ) );
+    }
+
+    @Test
+    public void testParseOptionalParts()
+    {
+        assertEquals( expected( "2021-06-30T23:59:00Z" ), Timestamps.parse( "2021-06-30T23:59Z" ) );
+        assertEquals( expected( "2021-06-30T23:59:58.500Z" ), Timestamps.parse( "2021-06-30T23:59:58.5Z" ) );
+        // digits beyond milliseconds are ignored
+        assertEquals( expected( "2021-06-30T23:59:58.123Z" ), Timestamps.parse( "2021-06-30T23:59:58.123999Z" ) );
+    }
+
+    @Test
+    public void testParseBeforeEpochAndLeapDay()
+    {
+        assertEquals( expected( "1969-12-31T23:59:59.999Z" ), Timestamps.parse( "1969-12-31T23:59:59.999Z" ) );
+        assertEquals( expected( "2020-02-29T12:00:00Z" ), Timestamps.parse( "2020-02-29T12:00:00Z" ) );
+    }
+
+    @Test
+    public void testParseFromBuffer()
+    {
+        final char[] buffer = "\"updated\":\"2021-01-01T10:00:00.000Z\"".toCharArray();
+        assertEquals( expected( "2021-01-01T10:00:00.000Z" ), Timestamps.parse( buffer, 11, 24 ) );
+    }
+
+    @Test
+    public void testParseMalformed()
+    {
+        assertThrows( DateTimeParseException.class, () -> Timestamps.parse( "" ) );
+        assertThrows( DateTimeParseException.class, () -> Timestamps.parse( "2021-01-01" ) );
+        assertThrows( DateTimeParseException.class, () -> Timestamps.parse( "2021-01-01T10:00:00" ) );
+        assertThrows( DateTimeParseException.class, () -> Timestamps.parse( "2021-01-01T10:00:00.Z" ) );
+        assertThrows( DateTimeParseException.class, () -> Timestamps.parse( "2021-13-01T10:00:00Z" ) );
+        assertThrows( DateTimeParseException.class, () -> Timestamps.parse( "2021-02-29T10:00:00Z" ) );
+        assertThrows( DateTimeParseException.class, () -> Timestamps.parse( "2021-01-01T24:00:00Z" ) );
+        assertThrows( DateTimeParseException.class, () -> Timestamps.parse( "2021-01-01T10:00:00+01:00x" ) );
+    }
+
+    @Test
+    public void testNoDate()
+    {
+        assertNull( Timestamps.toDate( Timestamps.NO_DATE ) );
+        assertEquals( Timestamps.NO_DATE, Timestamps.toMillis( null ) );
+        final long millis = expected( "2021-01-01T10:00:00Z" );
+        assertEquals( millis, Timestamps.toMillis( Timestamps.toDate( millis ) ) );
+    }
+}